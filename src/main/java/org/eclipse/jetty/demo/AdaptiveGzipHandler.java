@@ -0,0 +1,278 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.compression.CompressionPool;
+import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * A {@link GzipHandler} that adapts the compression level to the recent CPU load and the response size.
+ * <p>
+ * Under a low load responses are compressed with the configured level; under a moderate load,
+ * or for large responses, with the fastest level; and under a high load they are not compressed
+ * at all, trading bandwidth for tail latency. The load of the process is sampled at most once per
+ * {@link #setCpuLoadSampleInterval(long) sample interval}.
+ * </p>
+ * <p>
+ * The pooled {@link Deflater}s measure the bytes they compress and the CPU time they spend
+ * compressing, published as {@link #getCompressionRatio()} and {@link #getCompressionCpuNanos()}.
+ * </p>
+ */
+public class AdaptiveGzipHandler extends GzipHandler
+{
+    /**
+     * The level returned by {@link #selectCompressionLevel(double, long)} to not compress.
+     */
+    protected static final int SKIP_COMPRESSION = Integer.MIN_VALUE;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final AtomicLong nextCpuLoadSample = new AtomicLong(System.nanoTime());
+    private volatile double cpuLoad;
+    private long cpuLoadSampleInterval = TimeUnit.SECONDS.toNanos(1);
+    private double fastCpuLoad = 0.6;
+    private double skipCpuLoad = 0.9;
+    private long largeResponseSize = 1024 * 1024;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the deflate level used when the CPU load is low
+     */
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void setCpuLoadSampleInterval(long interval, TimeUnit unit)
+    {
+        this.cpuLoadSampleInterval = unit.toNanos(interval);
+    }
+
+    /**
+     * @param fastCpuLoad the CPU load, between 0 and 1, from which responses are compressed with the fastest level
+     */
+    public void setFastCpuLoad(double fastCpuLoad)
+    {
+        this.fastCpuLoad = fastCpuLoad;
+    }
+
+    /**
+     * @param skipCpuLoad the CPU load, between 0 and 1, from which responses are not compressed
+     */
+    public void setSkipCpuLoad(double skipCpuLoad)
+    {
+        this.skipCpuLoad = skipCpuLoad;
+    }
+
+    /**
+     * @param largeResponseSize the declared content length from which responses are compressed with the fastest level
+     */
+    public void setLargeResponseSize(long largeResponseSize)
+    {
+        this.largeResponseSize = largeResponseSize;
+    }
+
+    /**
+     * @return the number of responses compressed
+     */
+    public long getCompressed()
+    {
+        return compressed.sum();
+    }
+
+    /**
+     * @return the number of compressible responses not compressed because of the CPU load
+     */
+    public long getSkipped()
+    {
+        return skipped.sum();
+    }
+
+    /**
+     * @return the uncompressed bytes divided by the compressed bytes, or 0 if nothing was compressed
+     */
+    public double getCompressionRatio()
+    {
+        long out = bytesOut.sum();
+        return out == 0 ? 0 : (double)bytesIn.sum() / out;
+    }
+
+    /**
+     * @return the CPU time spent compressing, in nanoseconds
+     */
+    public long getCompressionCpuNanos()
+    {
+        return cpuNanos.sum();
+    }
+
+    /**
+     * @return the recent CPU load of the process, between 0 and 1, or a negative value if not available
+     */
+    protected double getCpuLoad()
+    {
+        long now = System.nanoTime();
+        long next = nextCpuLoadSample.get();
+        if (now - next >= 0 && nextCpuLoadSample.compareAndSet(next, now + cpuLoadSampleInterval))
+        {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+                cpuLoad = ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuLoad();
+            else
+                cpuLoad = os.getSystemLoadAverage() / os.getAvailableProcessors();
+        }
+        return cpuLoad;
+    }
+
+    /**
+     * @param cpuLoad the recent CPU load
+     * @param contentLength the declared content length of the response, or -1
+     * @return the deflate level, or {@link #SKIP_COMPRESSION} to not compress
+     */
+    protected int selectCompressionLevel(double cpuLoad, long contentLength)
+    {
+        if (cpuLoad >= skipCpuLoad)
+            return SKIP_COMPRESSION;
+        if (cpuLoad >= fastCpuLoad || contentLength >= largeResponseSize)
+            return Deflater.BEST_SPEED;
+        return getCompressionLevel();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (getDeflaterPool() == null)
+        {
+            int capacity = CompressionPool.DEFAULT_CAPACITY;
+            ThreadPool threadPool = getServer() == null ? null : getServer().getThreadPool();
+            if (threadPool instanceof ThreadPool.SizedThreadPool)
+                capacity = ((ThreadPool.SizedThreadPool)threadPool).getMaxThreads();
+            setDeflaterPool(new MeteredDeflaterPool(capacity));
+        }
+        super.doStart();
+    }
+
+    @Override
+    public DeflaterPool.Entry getDeflaterEntry(Request request, long contentLength)
+    {
+        // The size and accept encoding checks are cheaper than sampling the load.
+        DeflaterPool.Entry entry = super.getDeflaterEntry(request, contentLength);
+        if (entry == null)
+            return null;
+
+        int level = selectCompressionLevel(getCpuLoad(), contentLength);
+        if (level == SKIP_COMPRESSION)
+        {
+            entry.release();
+            skipped.increment();
+            return null;
+        }
+        entry.get().setLevel(level);
+        compressed.increment();
+        return entry;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{compressed=%d,skipped=%d,ratio=%.2f,cpu=%dms}",
+            super.toString(), getCompressed(), getSkipped(), getCompressionRatio(), TimeUnit.NANOSECONDS.toMillis(getCompressionCpuNanos()));
+    }
+
+    private class MeteredDeflaterPool extends DeflaterPool
+    {
+        MeteredDeflaterPool(int capacity)
+        {
+            super(capacity, Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        @Override
+        protected Deflater newPooled()
+        {
+            return new MeteredDeflater();
+        }
+
+        @Override
+        protected void reset(Deflater deflater)
+        {
+            ((MeteredDeflater)deflater).collect();
+            super.reset(deflater);
+        }
+
+        @Override
+        protected void end(Deflater deflater)
+        {
+            ((MeteredDeflater)deflater).collect();
+            super.end(deflater);
+        }
+    }
+
+    private class MeteredDeflater extends Deflater
+    {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private long deflateNanos;
+
+        MeteredDeflater()
+        {
+            super(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        @Override
+        public int deflate(ByteBuffer output, int flush)
+        {
+            long start = threads.getCurrentThreadCpuTime();
+            try
+            {
+                return super.deflate(output, flush);
+            }
+            finally
+            {
+                deflateNanos += threads.getCurrentThreadCpuTime() - start;
+            }
+        }
+
+        void collect()
+        {
+            // Called when the deflater is released, before it is reset for the next response.
+            bytesIn.add(getBytesRead());
+            bytesOut.add(getBytesWritten());
+            cpuNanos.add(deflateNanos);
+            deflateNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.server.HttpInput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.component.Destroyable;
+
+/**
+ * The single {@link HttpInput.Interceptor} of a request, running all the registered {@link Check}s in one pass over each content.
+ * <p>
+ * The composite is installed at the head of the request interceptors, wrapping any interceptor already
+ * installed (such as the {@code GzipHandler} inflater), so that the checks see the content as the application
+ * will read it, without a chained interceptor per check. It is found again from the request input itself,
+ * rather than from a request attribute, and checks are registered at most once per type.
+ * </p>
+ */
+public class CompositeInputInterceptor implements HttpInput.Interceptor, Destroyable
+{
+    private final HttpInput.Interceptor previous;
+    private Check[] checks = new Check[2];
+    private int size;
+    private long readBytes;
+
+    /**
+     * A check of the request content.
+     */
+    public interface Check
+    {
+        /**
+         * @param content the content, to be read with absolute gets only
+         * @param readBytes the number of bytes read so far, including this content
+         */
+        void onContent(ByteBuffer content, long readBytes);
+
+        /**
+         * Release the resources of the check, called when the request is recycled.
+         */
+        default void destroy()
+        {
+        }
+    }
+
+    /**
+     * @param request the request
+     * @return the composite interceptor of the request, or null if none is installed
+     */
+    public static CompositeInputInterceptor get(Request request)
+    {
+        HttpInput.Interceptor interceptor = request.getHttpInput().getInterceptor();
+        return interceptor instanceof CompositeInputInterceptor ? (CompositeInputInterceptor)interceptor : null;
+    }
+
+    /**
+     * @param request the request
+     * @return the composite interceptor of the request, installed if needed
+     */
+    public static CompositeInputInterceptor ensure(Request request)
+    {
+        HttpInput httpInput = request.getHttpInput();
+        HttpInput.Interceptor interceptor = httpInput.getInterceptor();
+        if (interceptor instanceof CompositeInputInterceptor)
+            return (CompositeInputInterceptor)interceptor;
+        CompositeInputInterceptor composite = new CompositeInputInterceptor(interceptor);
+        httpInput.setInterceptor(composite);
+        return composite;
+    }
+
+    /**
+     * @param previous the interceptor to run before the checks, or null
+     */
+    public CompositeInputInterceptor(HttpInput.Interceptor previous)
+    {
+        this.previous = previous;
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getReadBytes()
+    {
+        return readBytes;
+    }
+
+    /**
+     * @param type the type of check
+     * @param <C> the type of check
+     * @return the registered check of exactly that type, or null
+     */
+    public <C extends Check> C getCheck(Class<C> type)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            // Exact type, so that a subclass check does not stand in for its super type.
+            if (checks[i].getClass() == type)
+                return type.cast(checks[i]);
+        }
+        return null;
+    }
+
+    /**
+     * Register a check, unless a check of the same type is already registered.
+     *
+     * @param type the type of check
+     * @param factory creates the check if none of that type is registered
+     * @param <C> the type of check
+     * @return the registered check of that type
+     */
+    public <C extends Check> C addCheck(Class<C> type, Supplier<? extends C> factory)
+    {
+        C check = getCheck(type);
+        if (check == null)
+        {
+            check = factory.get();
+            if (size == checks.length)
+                checks = Arrays.copyOf(checks, size * 2);
+            checks[size++] = check;
+        }
+        return check;
+    }
+
+    @Override
+    public HttpInput.Content readFrom(HttpInput.Content content)
+    {
+        if (previous != null && content != null)
+            content = previous.readFrom(content);
+        if (content == null || content.isSpecial())
+            return content;
+
+        int remaining = content.remaining();
+        if (remaining > 0)
+        {
+            readBytes += remaining;
+            ByteBuffer buffer = content.getByteBuffer();
+            for (int i = 0; i < size; i++)
+            {
+                checks[i].onContent(buffer, readBytes);
+            }
+        }
+        return content;
+    }
+
+    @Override
+    public void destroy()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            checks[i].destroy();
+        }
+        if (previous instanceof Destroyable)
+            ((Destroyable)previous).destroy();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{readBytes=%d,checks=%s,previous=%s}",
+            getClass().getSimpleName(), hashCode(), readBytes, Arrays.toString(Arrays.copyOf(checks, size)), previous);
+    }
+}
@@ -0,0 +1,243 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.IncludeExclude;
+
+/**
+ * Limits the number of request bodies that a single client can stream at the same time.
+ * <p>
+ * Clients are identified by their API key header if the key is accepted by the
+ * {@link #setApiKeyValidator(Predicate) API key validator}, otherwise by their remote address.
+ * Without a validator API keys are ignored, as a client could otherwise get a fresh allowance
+ * with every made up key. The handler runs ahead of any authentication, so the principal of
+ * the request is not known yet. A slot is taken before the body is read, and released when the request
+ * completes, including asynchronous requests, or fails. Requests over the limit are
+ * immediately rejected with a {@code 429} and their body is never read.
+ * </p>
+ * <p>
+ * Put this handler ahead of the {@link MaxRequestSizeHandler}.
+ * The in-flight counters are held in a {@link ConcurrentHashMap}, which stripes its updates
+ * across its bins, and a counter is evicted as soon as its client has no upload in flight.
+ * </p>
+ */
+public class ConcurrentUploadLimitHandler extends HandlerWrapper
+{
+    private final ConcurrentMap<String, AtomicInteger> uploads = new ConcurrentHashMap<>();
+    private final IncludeExclude<String> methods = new IncludeExclude<>();
+    private int maxConcurrentUploads;
+    private String apiKeyHeader = "X-API-Key";
+    private Predicate<String> apiKeyValidator;
+
+    public ConcurrentUploadLimitHandler(int maxConcurrentUploads)
+    {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.methods.getIncluded().add("POST");
+        this.methods.getIncluded().add("PUT");
+    }
+
+    public int getMaxConcurrentUploads()
+    {
+        return maxConcurrentUploads;
+    }
+
+    public void setMaxConcurrentUploads(int maxConcurrentUploads)
+    {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    public String getApiKeyHeader()
+    {
+        return apiKeyHeader;
+    }
+
+    public void setApiKeyHeader(String apiKeyHeader)
+    {
+        this.apiKeyHeader = apiKeyHeader;
+    }
+
+    public Predicate<String> getApiKeyValidator()
+    {
+        return apiKeyValidator;
+    }
+
+    /**
+     * @param apiKeyValidator tests whether an API key is genuine, called for every upload
+     * with a key so it should be cheap (for example a cache lookup), or null to ignore API keys
+     */
+    public void setApiKeyValidator(Predicate<String> apiKeyValidator)
+    {
+        this.apiKeyValidator = apiKeyValidator;
+    }
+
+    /**
+     * @return the number of clients with uploads in flight
+     */
+    public int getClientCount()
+    {
+        return uploads.size();
+    }
+
+    /**
+     * @param key the client key
+     * @return the number of uploads in flight for the client
+     */
+    public int getConcurrentUploads(String key)
+    {
+        AtomicInteger count = uploads.get(key);
+        return count == null ? 0 : Math.max(0, count.get());
+    }
+
+    protected boolean isUpload(Request request)
+    {
+        return methods.test(request.getMethod()) && request.getContentLengthLong() != 0;
+    }
+
+    protected String getClientKey(Request request)
+    {
+        Predicate<String> validator = apiKeyValidator;
+        String apiKey = apiKeyHeader == null || validator == null ? null : request.getHeader(apiKeyHeader);
+        if (apiKey != null && validator.test(apiKey))
+            return "key:" + apiKey;
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        if (baseRequest.getDispatcherType() != DispatcherType.REQUEST || !isUpload(baseRequest))
+        {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+
+        String key = getClientKey(baseRequest);
+        if (!acquire(key))
+        {
+            // Not sendError(), this is a normal response that the server error handling doesn't need to render.
+            baseRequest.setHandled(true);
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS_429);
+            response.setContentLength(0);
+            return;
+        }
+
+        Slot slot = new Slot(key);
+        try
+        {
+            super.handle(target, baseRequest, request, response);
+        }
+        finally
+        {
+            // Asynchronous uploads keep their slot until the request completes.
+            if (baseRequest.isAsyncStarted())
+                baseRequest.getAsyncContext().addListener(slot);
+            else
+                slot.release();
+        }
+    }
+
+    private boolean acquire(String key)
+    {
+        while (true)
+        {
+            AtomicInteger count = uploads.computeIfAbsent(key, k -> new AtomicInteger());
+            while (true)
+            {
+                int current = count.get();
+                // A negative count is being evicted: remove it, rather than wait
+                // for the releasing thread to, and retry with a new counter.
+                if (current < 0)
+                {
+                    uploads.remove(key, count);
+                    break;
+                }
+                if (current >= maxConcurrentUploads)
+                    return false;
+                if (count.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+    }
+
+    private void release(String key)
+    {
+        AtomicInteger count = uploads.get(key);
+        if (count == null)
+            return;
+        // Mark an idle counter as evicted before removing it, so that it can't be acquired concurrently.
+        if (count.decrementAndGet() == 0 && count.compareAndSet(0, -1))
+            uploads.remove(key, count);
+    }
+
+    private class Slot implements AsyncListener
+    {
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final String key;
+
+        Slot(String key)
+        {
+            this.key = key;
+        }
+
+        void release()
+        {
+            if (released.compareAndSet(false, true))
+                ConcurrentUploadLimitHandler.this.release(key);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            // Failed and aborted requests are also completed.
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.util.StringUtil;
+
+/**
+ * Request size limits selected by content type.
+ * <p>
+ * The declared {@code Content-Type} is not trusted: {@link #sniff(ByteBuffer, String)} classifies the
+ * first bytes of the body, and the effective limit is the stricter of the limits for the declared
+ * and the sniffed types, so a body can't get a larger allowance by being mislabeled.
+ * </p>
+ */
+public class ContentTypeLimits
+{
+    public static final String JSON = "application/json";
+    public static final String MULTIPART = "multipart/form-data";
+    public static final String FORM = "application/x-www-form-urlencoded";
+    public static final String BINARY = "application/octet-stream";
+
+    private static final int SNIFF_LENGTH = 64;
+
+    private final Map<String, Long> limits;
+    private final long defaultLimit;
+    private final long userLimit;
+
+    public ContentTypeLimits(long defaultLimit)
+    {
+        this(new ConcurrentHashMap<>(), defaultLimit, -1);
+    }
+
+    private ContentTypeLimits(Map<String, Long> limits, long defaultLimit, long userLimit)
+    {
+        this.limits = limits;
+        this.defaultLimit = defaultLimit;
+        this.userLimit = userLimit;
+    }
+
+    /**
+     * The limit of a user overrides both the default limit and the limits by content type:
+     * a user limit larger than the default raises smaller content type limits to it,
+     * a user limit smaller than the default lowers larger content type limits to it.
+     *
+     * @param userLimit the limit of an authenticated user
+     * @return limits sharing the content type limits of this instance, overridden by the user limit
+     */
+    public ContentTypeLimits withUserLimit(long userLimit)
+    {
+        if (userLimit == defaultLimit)
+            return this;
+        return new ContentTypeLimits(limits, defaultLimit, userLimit);
+    }
+
+    /**
+     * @return the default limit, not overridden by a user limit
+     */
+    public long getDefaultLimit()
+    {
+        return defaultLimit;
+    }
+
+    public void put(String mimeType, long maxSize)
+    {
+        limits.put(StringUtil.asciiToLowerCase(mimeType), maxSize);
+    }
+
+    /**
+     * @param contentType a content type, possibly with parameters, or null
+     * @return the limit for the content type, or the default limit
+     */
+    public long getLimit(String contentType)
+    {
+        if (contentType == null)
+            return override(defaultLimit);
+        String mimeType = StringUtil.asciiToLowerCase(MimeTypes.getContentTypeWithoutCharset(contentType));
+        int semicolon = mimeType.indexOf(';');
+        if (semicolon >= 0)
+            mimeType = mimeType.substring(0, semicolon).trim();
+        return override(limits.getOrDefault(mimeType, defaultLimit));
+    }
+
+    private long override(long limit)
+    {
+        if (userLimit < 0)
+            return limit;
+        return userLimit > defaultLimit ? Math.max(limit, userLimit) : Math.min(limit, userLimit);
+    }
+
+    /**
+     * @param declaredContentType the declared content type, or null
+     * @param sniffedMimeType the mime type returned by {@link #sniff(ByteBuffer, String)}
+     * @return the stricter of the limits of both types
+     */
+    public long getLimit(String declaredContentType, String sniffedMimeType)
+    {
+        return Math.min(getLimit(declaredContentType), getLimit(sniffedMimeType));
+    }
+
+    /**
+     * Classify content from its first bytes, reading the buffer with absolute gets
+     * so that neither its position nor its content is touched.
+     * <p>
+     * Content is only classified as multipart if it starts with the delimiter of the
+     * boundary declared by the content type, so a first buffer shorter than the
+     * delimiter is not classified as multipart.
+     * </p>
+     *
+     * @param buffer the first content of a body
+     * @param declaredContentType the declared content type, or null
+     * @return one of {@link #JSON}, {@link #MULTIPART}, {@link #FORM} or {@link #BINARY}
+     */
+    public static String sniff(ByteBuffer buffer, String declaredContentType)
+    {
+        int start = buffer.position();
+        int end = Math.min(buffer.limit(), start + SNIFF_LENGTH);
+
+        // A leading UTF-8 byte order mark and whitespace are allowed before JSON.
+        int i = start;
+        if (end - i >= 3 && buffer.get(i) == (byte)0xEF && buffer.get(i + 1) == (byte)0xBB && buffer.get(i + 2) == (byte)0xBF)
+            i += 3;
+        while (i < end && isWhitespace(buffer.get(i)))
+        {
+            i++;
+        }
+        if (i < end && (buffer.get(i) == '{' || buffer.get(i) == '['))
+            return JSON;
+
+        if (startsWithDelimiter(buffer, getBoundary(declaredContentType)))
+            return MULTIPART;
+
+        boolean equals = false;
+        for (i = start; i < end; i++)
+        {
+            byte b = buffer.get(i);
+            if (b == '=')
+                equals = true;
+            else if (!isFormByte(b))
+                return BINARY;
+        }
+        return equals ? FORM : BINARY;
+    }
+
+    private static String getBoundary(String contentType)
+    {
+        if (contentType == null)
+            return null;
+        Map<String, String> parameters = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String mimeType = HttpField.getValueParameters(contentType, parameters);
+        if (!StringUtil.asciiToLowerCase(mimeType).startsWith("multipart/"))
+            return null;
+        String boundary = parameters.get("boundary");
+        return StringUtil.isEmpty(boundary) ? null : boundary;
+    }
+
+    private static boolean startsWithDelimiter(ByteBuffer buffer, String boundary)
+    {
+        // The delimiter may be longer than the sniffed bytes, as a boundary has up to 70 chars.
+        if (boundary == null || buffer.remaining() < boundary.length() + 2)
+            return false;
+        int start = buffer.position();
+        if (buffer.get(start) != '-' || buffer.get(start + 1) != '-')
+            return false;
+        for (int i = 0; i < boundary.length(); i++)
+        {
+            if (buffer.get(start + 2 + i) != (byte)boundary.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isFormByte(byte b)
+    {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') ||
+            b == '%' || b == '+' || b == '&' || b == '-' || b == '_' || b == '.' || b == '*' || b == '~';
+    }
+}
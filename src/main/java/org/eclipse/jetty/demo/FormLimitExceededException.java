@@ -0,0 +1,31 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+/**
+ * A limit on the number of keys or on the length of a key or value
+ * of a {@code application/x-www-form-urlencoded} body was exceeded.
+ */
+public class FormLimitExceededException extends MaxRequestSizeExceededException
+{
+    public FormLimitExceededException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,209 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.eclipse.jetty.http.BadMessageException;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.RuntimeIOException;
+import org.eclipse.jetty.util.MultiMap;
+import org.eclipse.jetty.util.UrlEncoded;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Replaces the container's form parameter handling with a {@link StreamingFormParser}.
+ * <p>
+ * The form body is only parsed when a parameter is first requested, and only
+ * the values that are actually requested are ever decoded.
+ * Map this filter after the {@link MaxRequestSizeFilter} so that the body is
+ * read through the request size interceptor.
+ * </p>
+ */
+public class FormParametersFilter implements Filter
+{
+    private StreamingFormParser parser;
+
+    @Override
+    public void init(FilterConfig filterConfig)
+    {
+        int maxKeys = getInitInteger(filterConfig, "maxKeys", 256);
+        int maxKeyLength = getInitInteger(filterConfig, "maxKeyLength", 256);
+        int maxValueLength = getInitInteger(filterConfig, "maxValueLength", 8192);
+        int maxFormSize = getInitInteger(filterConfig, "maxFormSize", 200000);
+        parser = new StreamingFormParser(maxKeys, maxKeyLength, maxValueLength, maxFormSize);
+    }
+
+    private int getInitInteger(FilterConfig config, String key, int defValue)
+    {
+        Object val = config.getInitParameter(key);
+        if (val == null)
+            return defValue;
+        try
+        {
+            return Integer.parseInt(val.toString());
+        }
+        catch (NumberFormatException e)
+        {
+            return defValue;
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (request.getDispatcherType() == DispatcherType.REQUEST && request instanceof HttpServletRequest)
+            request = new FormRequest((HttpServletRequest)request, parser);
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+
+    private static class FormRequest extends HttpServletRequestWrapper
+    {
+        private final StreamingFormParser parser;
+        private MultiMap<String> queryParameters;
+        private StreamingFormParser.Parameters formParameters;
+
+        FormRequest(HttpServletRequest request, StreamingFormParser parser)
+        {
+            super(request);
+            this.parser = parser;
+        }
+
+        private Charset getCharset()
+        {
+            String encoding = getCharacterEncoding();
+            if (encoding == null)
+                return UTF_8;
+            try
+            {
+                return Charset.forName(encoding);
+            }
+            catch (IllegalCharsetNameException | UnsupportedCharsetException e)
+            {
+                throw new BadMessageException(HttpStatus.UNSUPPORTED_MEDIA_TYPE_415, "Unsupported charset " + encoding, e);
+            }
+        }
+
+        private MultiMap<String> getQueryParameters()
+        {
+            if (queryParameters == null)
+            {
+                queryParameters = new MultiMap<>();
+                String query = getQueryString();
+                if (query != null)
+                    UrlEncoded.decodeTo(query, queryParameters, getCharset());
+            }
+            return queryParameters;
+        }
+
+        private StreamingFormParser.Parameters getFormParameters()
+        {
+            if (formParameters == null)
+            {
+                String contentType = getContentType();
+                boolean formEncoded = contentType != null && MimeTypes.Type.FORM_ENCODED.is(MimeTypes.getContentTypeWithoutCharset(contentType));
+                try
+                {
+                    InputStream in = formEncoded ? getInputStream() : InputStream.nullInputStream();
+                    formParameters = parser.parse(in, getCharset());
+                }
+                catch (IOException e)
+                {
+                    // The request size interceptor failure surfaces as the cause of the read failure.
+                    if (e.getCause() instanceof MaxRequestSizeExceededException)
+                        throw (MaxRequestSizeExceededException)e.getCause();
+                    // Parse errors are thrown as BadMessageException by the parser, this is a read failure:
+                    // keep it as the cause, as the container does for its own form parameters.
+                    throw new RuntimeIOException(e);
+                }
+            }
+            return formParameters;
+        }
+
+        @Override
+        public String getParameter(String name)
+        {
+            String value = getQueryParameters().getValue(name, 0);
+            if (value == null)
+                value = getFormParameters().getValue(name);
+            return value;
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames()
+        {
+            Set<String> names = new LinkedHashSet<>(getQueryParameters().keySet());
+            names.addAll(getFormParameters().getNames());
+            return Collections.enumeration(names);
+        }
+
+        @Override
+        public String[] getParameterValues(String name)
+        {
+            List<String> queryValues = getQueryParameters().getValues(name);
+            String[] formValues = getFormParameters().getValues(name);
+            if (queryValues == null)
+                return formValues;
+            if (formValues == null)
+                return queryValues.toArray(new String[0]);
+            String[] values = queryValues.toArray(new String[queryValues.size() + formValues.length]);
+            System.arraycopy(formValues, 0, values, queryValues.size(), formValues.length);
+            return values;
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap()
+        {
+            Map<String, String[]> map = new LinkedHashMap<>();
+            for (Enumeration<String> names = getParameterNames(); names.hasMoreElements(); )
+            {
+                String name = names.nextElement();
+                map.put(name, getParameterValues(name));
+            }
+            return Collections.unmodifiableMap(map);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.thread.AutoLock;
+
+/**
+ * Bounded cache of responses keyed by {@code Idempotency-Key}.
+ * <p>
+ * The cache is bounded by the total (estimated) size of the stored responses,
+ * evicting the least recently used completed responses first.
+ * Entries that are still in-flight are never evicted, and completed entries
+ * expire after a fixed time-to-live.
+ * </p>
+ */
+public class IdempotencyCache
+{
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private final AutoLock lock = new AutoLock();
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxCacheSize;
+    private final long maxEntrySize;
+    private final long ttlNanos;
+    private long cacheSize;
+
+    public IdempotencyCache(long maxCacheSize, long maxEntrySize, long ttl, TimeUnit unit)
+    {
+        this.maxCacheSize = maxCacheSize;
+        this.maxEntrySize = maxEntrySize;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public long getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+    public long getCacheSize()
+    {
+        try (AutoLock l = lock.lock())
+        {
+            return cacheSize;
+        }
+    }
+
+    public int getEntryCount()
+    {
+        try (AutoLock l = lock.lock())
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Start processing of a key.
+     *
+     * @param key the idempotency key
+     * @return null if the caller now owns the key and must later call either
+     * {@link #complete(String, CachedResponse)} or {@link #abandon(String)},
+     * otherwise the future response of the (possibly still in-flight) request that owns the key.
+     */
+    public CompletableFuture<CachedResponse> begin(String key)
+    {
+        long now = System.nanoTime();
+        try (AutoLock l = lock.lock())
+        {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired(now))
+            {
+                remove(key, entry);
+                entry = null;
+            }
+            if (entry != null)
+                return entry.future;
+
+            entry = new Entry();
+            entries.put(key, entry);
+            cacheSize += ENTRY_OVERHEAD;
+            return null;
+        }
+    }
+
+    /**
+     * Store the response of an owned key and release any waiting duplicates.
+     *
+     * @param key the idempotency key
+     * @param response the response to replay for duplicates
+     */
+    public void complete(String key, CachedResponse response)
+    {
+        Entry entry;
+        try (AutoLock l = lock.lock())
+        {
+            entry = entries.get(key);
+            if (entry == null || entry.response != null)
+                return;
+
+            if (response.getSize() > maxEntrySize)
+            {
+                remove(key, entry);
+            }
+            else
+            {
+                entry.response = response;
+                entry.expires = System.nanoTime() + ttlNanos;
+                cacheSize += response.getSize();
+                evict();
+            }
+        }
+        entry.future.complete(response);
+    }
+
+    /**
+     * Forget an owned key without storing a response, for example because
+     * the request failed and must be retried for real.
+     * Waiting duplicates are released with a {@code null} response.
+     *
+     * @param key the idempotency key
+     */
+    public void abandon(String key)
+    {
+        Entry entry;
+        try (AutoLock l = lock.lock())
+        {
+            entry = entries.get(key);
+            if (entry == null || entry.response != null)
+                return;
+            remove(key, entry);
+        }
+        entry.future.complete(null);
+    }
+
+    private void remove(String key, Entry entry)
+    {
+        entries.remove(key);
+        cacheSize -= ENTRY_OVERHEAD;
+        if (entry.response != null)
+            cacheSize -= entry.response.getSize();
+    }
+
+    private void evict()
+    {
+        // Entries are in access order, so the least recently used come first.
+        // Expired entries that are not reached here are removed on lookup.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (cacheSize > maxCacheSize && iterator.hasNext())
+        {
+            Entry entry = iterator.next();
+            if (entry.response == null)
+                continue;
+            iterator.remove();
+            cacheSize -= ENTRY_OVERHEAD + entry.response.getSize();
+        }
+    }
+
+    private static class Entry
+    {
+        private final CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+        private CachedResponse response;
+        private long expires;
+
+        boolean isExpired(long now)
+        {
+            return response != null && now - expires > 0;
+        }
+    }
+
+    /**
+     * A stored response: status, headers and (uncompressed) body.
+     */
+    public static class CachedResponse
+    {
+        private final int status;
+        private final List<String[]> headers;
+        private final byte[] body;
+        private final long size;
+
+        public CachedResponse(int status, List<String[]> headers, byte[] body)
+        {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            long size = body.length;
+            for (String[] header : headers)
+            {
+                size += header[0].length() + header[1].length();
+            }
+            this.size = size;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public List<String[]> getHeaders()
+        {
+            return headers;
+        }
+
+        public byte[] getBody()
+        {
+            return body;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.http.DateGenerator;
+import org.eclipse.jetty.http.HttpHeader;
+
+/**
+ * Replays the response of a completed POST for retries carrying the same {@code Idempotency-Key} header.
+ * <p>
+ * A retry of a request that is still in-flight waits asynchronously for the first request
+ * to complete and then receives its response. Where asynchronous processing is not supported,
+ * the retry receives a {@code 409 Conflict} right away rather than holding a request thread.
+ * Retries are answered before the request body is read at all.
+ * If the first request fails, waiting retries receive a {@code 409 Conflict} and may retry again.
+ * Only the headers set by the application are replayed, not those of the handlers around this filter,
+ * which set them again on the replayed response.
+ * </p>
+ */
+public class IdempotencyFilter implements Filter
+{
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+    private IdempotencyCache cache;
+    private long waitTimeout;
+
+    @Override
+    public void init(FilterConfig filterConfig)
+    {
+        long maxCacheSize = getInitInteger(filterConfig, "maxCacheSize", 4 * 1024 * 1024);
+        long maxEntrySize = getInitInteger(filterConfig, "maxEntrySize", 64 * 1024);
+        long ttl = getInitInteger(filterConfig, "ttl", 60_000);
+        waitTimeout = getInitInteger(filterConfig, "waitTimeout", 30_000);
+        cache = new IdempotencyCache(maxCacheSize, maxEntrySize, ttl, TimeUnit.MILLISECONDS);
+    }
+
+    private int getInitInteger(FilterConfig config, String key, int defValue)
+    {
+        Object val = config.getInitParameter(key);
+        if (val == null)
+            return defValue;
+        try
+        {
+            return Integer.parseInt(val.toString());
+        }
+        catch (NumberFormatException e)
+        {
+            return defValue;
+        }
+    }
+
+    public IdempotencyCache getCache()
+    {
+        return cache;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest httpRequest = (HttpServletRequest)request;
+        HttpServletResponse httpResponse = (HttpServletResponse)response;
+        String idempotencyKey = httpRequest.getHeader(IDEMPOTENCY_KEY);
+        if (idempotencyKey == null
+            || request.getDispatcherType() != DispatcherType.REQUEST
+            || !"POST".equals(httpRequest.getMethod()))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String key = toCacheKey(httpRequest, idempotencyKey);
+        CompletableFuture<IdempotencyCache.CachedResponse> existing = cache.begin(key);
+        if (existing == null)
+        {
+            handleFirst(key, httpRequest, httpResponse, chain);
+        }
+        else if (existing.isDone())
+        {
+            replay(awaitResponse(existing), httpResponse);
+        }
+        else if (!request.isAsyncSupported())
+        {
+            // Don't hold a request thread while the original request completes, a burst of retries would exhaust the pool.
+            httpResponse.sendError(HttpServletResponse.SC_CONFLICT, "Original request for " + IDEMPOTENCY_KEY + " is in progress");
+        }
+        else
+        {
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(0);
+            existing.copy()
+                .orTimeout(waitTimeout, TimeUnit.MILLISECONDS)
+                .whenComplete((cached, failure) -> asyncContext.start(() ->
+                {
+                    try
+                    {
+                        replay(cached, (HttpServletResponse)asyncContext.getResponse());
+                    }
+                    catch (IOException ignored)
+                    {
+                        // the client went away, nothing more to do
+                    }
+                    finally
+                    {
+                        asyncContext.complete();
+                    }
+                }));
+        }
+    }
+
+    protected String toCacheKey(HttpServletRequest request, String idempotencyKey)
+    {
+        // Scope keys by client and resource, so one client can't replay the responses of another.
+        // Anonymous clients are told apart by their address only, so authenticate clients that share one.
+        String user = request.getRemoteUser();
+        String client = user == null ? "address:" + request.getRemoteAddr() : "user:" + user;
+        return client + ' ' + request.getRequestURI() + ' ' + idempotencyKey;
+    }
+
+    private void handleFirst(String key, HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        CapturingResponse capturing = new CapturingResponse(response, cache.getMaxEntrySize());
+        boolean handled = false;
+        try
+        {
+            chain.doFilter(new CapturingRequest(request, capturing), capturing);
+            if (request.isAsyncStarted())
+            {
+                // The response is only complete once the asynchronous request completes.
+                request.getAsyncContext().addListener(new AsyncCompletion(key, capturing));
+            }
+            else
+            {
+                complete(key, capturing);
+            }
+            handled = true;
+        }
+        finally
+        {
+            if (!handled)
+                cache.abandon(key);
+        }
+    }
+
+    private void complete(String key, CapturingResponse capturing)
+    {
+        capturing.flushWriter();
+        if (!capturing.isFailed() && capturing.getStatus() < HttpServletResponse.SC_INTERNAL_SERVER_ERROR && !capturing.isOverflow())
+            cache.complete(key, capturing.toCachedResponse());
+        else
+            cache.abandon(key);
+    }
+
+    private IdempotencyCache.CachedResponse awaitResponse(CompletableFuture<IdempotencyCache.CachedResponse> future)
+    {
+        try
+        {
+            return future.get(waitTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException | ExecutionException | TimeoutException e)
+        {
+            return null;
+        }
+    }
+
+    private static void replay(IdempotencyCache.CachedResponse cached, HttpServletResponse response) throws IOException
+    {
+        if (cached == null)
+        {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "Original request for " + IDEMPOTENCY_KEY + " did not complete");
+            return;
+        }
+
+        response.setStatus(cached.getStatus());
+        for (String[] header : cached.getHeaders())
+        {
+            response.addHeader(header[0], header[1]);
+        }
+        response.setHeader(IDEMPOTENT_REPLAYED, "true");
+        byte[] body = cached.getBody();
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+
+    private class AsyncCompletion implements AsyncListener
+    {
+        private final String key;
+        private final CapturingResponse capturing;
+
+        AsyncCompletion(String key, CapturingResponse capturing)
+        {
+            this.key = key;
+            this.capturing = capturing;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            complete(key, capturing);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            capturing.setFailed();
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            capturing.setFailed();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    /**
+     * Makes {@link #startAsync()} keep the capturing response, so that
+     * the response of an asynchronous request is captured as well.
+     */
+    private static class CapturingRequest extends HttpServletRequestWrapper
+    {
+        private final CapturingResponse capturing;
+
+        CapturingRequest(HttpServletRequest request, CapturingResponse capturing)
+        {
+            super(request);
+            this.capturing = capturing;
+        }
+
+        @Override
+        public AsyncContext startAsync()
+        {
+            return startAsync(this, capturing);
+        }
+    }
+
+    private static boolean isReplayedHeader(String name)
+    {
+        // Framing and encoding headers are recomputed for the replayed response,
+        // and the content type is replayed from the response rather than from its headers.
+        return !HttpHeader.CONTENT_LENGTH.is(name)
+            && !HttpHeader.CONTENT_ENCODING.is(name)
+            && !HttpHeader.CONTENT_TYPE.is(name)
+            && !HttpHeader.TRANSFER_ENCODING.is(name)
+            && !HttpHeader.DATE.is(name)
+            && !IDEMPOTENT_REPLAYED.equalsIgnoreCase(name);
+    }
+
+    private static class CapturingResponse extends HttpServletResponseWrapper
+    {
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        private final long maxCaptureSize;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private Writer captureWriter;
+        private final List<String[]> headers = new ArrayList<>();
+        // Written while the response is produced, read by whichever thread completes it.
+        private volatile boolean overflow;
+        private volatile boolean failed;
+
+        CapturingResponse(HttpServletResponse response, long maxCaptureSize)
+        {
+            super(response);
+            this.maxCaptureSize = maxCaptureSize;
+        }
+
+        boolean isFailed()
+        {
+            return failed;
+        }
+
+        void setFailed()
+        {
+            failed = true;
+        }
+
+        boolean isOverflow()
+        {
+            return overflow;
+        }
+
+        void flushWriter()
+        {
+            if (writer == null)
+                return;
+            try
+            {
+                captureWriter.flush();
+            }
+            catch (IOException x)
+            {
+                overflow = true;
+            }
+        }
+
+        IdempotencyCache.CachedResponse toCachedResponse()
+        {
+            List<String[]> replayed = new ArrayList<>();
+            String contentType = getContentType();
+            if (contentType != null)
+                replayed.add(new String[]{HttpHeader.CONTENT_TYPE.asString(), contentType});
+            for (String[] header : headers)
+            {
+                if (isReplayedHeader(header[0]))
+                    replayed.add(header);
+            }
+            return new IdempotencyCache.CachedResponse(getStatus(), replayed, captured.toByteArray());
+        }
+
+        private void recordHeader(String name, String value, boolean replace)
+        {
+            if (replace)
+                headers.removeIf(header -> header[0].equalsIgnoreCase(name));
+            if (value != null)
+                headers.add(new String[]{name, value});
+        }
+
+        @Override
+        public void setHeader(String name, String value)
+        {
+            super.setHeader(name, value);
+            recordHeader(name, value, true);
+        }
+
+        @Override
+        public void addHeader(String name, String value)
+        {
+            super.addHeader(name, value);
+            recordHeader(name, value, false);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value)
+        {
+            super.setIntHeader(name, value);
+            recordHeader(name, Integer.toString(value), true);
+        }
+
+        @Override
+        public void addIntHeader(String name, int value)
+        {
+            super.addIntHeader(name, value);
+            recordHeader(name, Integer.toString(value), false);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date)
+        {
+            super.setDateHeader(name, date);
+            recordHeader(name, DateGenerator.formatDate(date), true);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date)
+        {
+            super.addDateHeader(name, date);
+            recordHeader(name, DateGenerator.formatDate(date), false);
+        }
+
+        @Override
+        public void addCookie(Cookie cookie)
+        {
+            // Record the Set-Cookie value as formatted by the container.
+            List<String> before = new ArrayList<>(getHeaders(HttpHeader.SET_COOKIE.asString()));
+            super.addCookie(cookie);
+            for (String value : getHeaders(HttpHeader.SET_COOKIE.asString()))
+            {
+                if (!before.remove(value))
+                    recordHeader(HttpHeader.SET_COOKIE.asString(), value, false);
+            }
+        }
+
+        private void capture(byte[] b, int off, int len)
+        {
+            if (overflow)
+                return;
+            if (captured.size() + len > maxCaptureSize)
+            {
+                overflow = true;
+                return;
+            }
+            captured.write(b, off, len);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            if (outputStream == null)
+            {
+                ServletOutputStream out = super.getOutputStream();
+                outputStream = new ServletOutputStream()
+                {
+                    @Override
+                    public void write(int b) throws IOException
+                    {
+                        out.write(b);
+                        capture(new byte[]{(byte)b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException
+                    {
+                        out.write(b, off, len);
+                        capture(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException
+                    {
+                        out.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException
+                    {
+                        out.close();
+                    }
+
+                    @Override
+                    public boolean isReady()
+                    {
+                        return out.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener)
+                    {
+                        out.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            if (writer == null)
+            {
+                // Write through the container's writer, which is flushed even when the
+                // response is completed asynchronously, and encode a copy for the capture.
+                PrintWriter out = super.getWriter();
+                captureWriter = new OutputStreamWriter(new OutputStream()
+                {
+                    @Override
+                    public void write(int b)
+                    {
+                        capture(new byte[]{(byte)b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                    {
+                        capture(b, off, len);
+                    }
+                }, getCharacterEncoding());
+                writer = new PrintWriter(new Writer()
+                {
+                    @Override
+                    public void write(char[] chars, int off, int len) throws IOException
+                    {
+                        out.write(chars, off, len);
+                        captureWriter.write(chars, off, len);
+                    }
+
+                    @Override
+                    public void flush()
+                    {
+                        out.flush();
+                    }
+
+                    @Override
+                    public void close()
+                    {
+                        out.close();
+                    }
+                });
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            if (writer != null)
+                writer.flush();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void reset()
+        {
+            super.reset();
+            headers.clear();
+            clearCapture();
+        }
+
+        @Override
+        public void resetBuffer()
+        {
+            super.resetBuffer();
+            clearCapture();
+        }
+
+        private void clearCapture()
+        {
+            // Discard characters still pending in the encoder too.
+            flushWriter();
+            captured.reset();
+            overflow = false;
+        }
+    }
+}
@@ -18,10 +18,17 @@
 
 package org.eclipse.jetty.demo;
 
+import java.nio.file.Path;
 import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.DispatcherType;
 
 import org.eclipse.jetty.demo.servlets.DumpServlet;
+import org.eclipse.jetty.demo.servlets.RejectedBodyCaptureServlet;
+import org.eclipse.jetty.demo.servlets.StreamingUploadServlet;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.DefaultHandler;
@@ -30,35 +37,81 @@ import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.ErrorPageErrorHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 public class Main
 {
     public static void main(String[] args) throws Exception
     {
-        Server server = newServer(8080);
-        server.start();
+        Path auditLogFile = Path.of(System.getProperty("rejectionAuditLog",
+            Path.of(System.getProperty("java.io.tmpdir"), "jetty-interceptor-rejections.log").toString()));
+        Server server = newServer(8080, Boolean.getBoolean("h2c"), auditLogFile);
+        // Optionally JIT compile the request handling before accepting traffic.
+        if (Boolean.getBoolean("warmup"))
+            new ServerWarmup().start(server);
+        else
+            server.start();
         server.join();
     }
 
     public static Server newServer(int port)
+    {
+        return newServer(port, false, null);
+    }
+
+    public static Server newServer(int port, boolean h2c)
+    {
+        return newServer(port, h2c, null);
+    }
+
+    /**
+     * @param port the port to listen on
+     * @param h2c whether to also accept clear-text HTTP/2, on the same port as HTTP/1.1
+     * @param auditLogFile the file to audit rejected requests to, or null for no audit log;
+     * each server needs its own file, as the file is rolled by the server writing to it
+     * @return the server
+     */
+    public static Server newServer(int port, boolean h2c, Path auditLogFile)
     {
         Server server = new Server();
         server.setErrorHandler(new MyServerErrorHandler());
 
-        ServerConnector connector = new ServerConnector(server);
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        ServerConnector connector;
+        if (h2c)
+        {
+            // Each HTTP/2 stream is its own request, so the request size interceptors apply per stream,
+            // and a rejected stream is reset on its own without closing the connection.
+            // A modest stream window bounds what a client can send before its body is checked.
+            HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(httpConfig);
+            http2.setInitialStreamRecvWindow(16 * 1024);
+            http2.setFlowControlStrategyFactory(() -> new RejectedStreamFlowControlStrategy(0.5F));
+            connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig), http2);
+        }
+        else
+        {
+            connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig));
+        }
         connector.setPort(port);
         server.addConnector(connector);
 
-        GzipHandler gzipHandler = new GzipHandler();
+        GzipHandler gzipHandler = new AdaptiveGzipHandler();
         gzipHandler.setInflateBufferSize(512); // set to non-zero value to allow inflation of request buffers.
 
         ServletContextHandler contextHandler = new ServletContextHandler();
         contextHandler.setContextPath("/");
 
+        FilterHolder idempotencyFilterHolder = contextHandler.addFilter(IdempotencyFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+        idempotencyFilterHolder.setAsyncSupported(true); // duplicates wait for the original request asynchronously
         FilterHolder maxRequestSizeFilterHolder = contextHandler.addFilter(MaxRequestSizeFilter.class, "/dump/*", EnumSet.of(DispatcherType.REQUEST));
         maxRequestSizeFilterHolder.setInitParameter("maxSize", "1024");
+        maxRequestSizeFilterHolder.setInitParameter("maxSize.multipart/form-data", "4096");
+        maxRequestSizeFilterHolder.setInitParameter("maxResponseSize", "65536");
+        contextHandler.addFilter(FormParametersFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST)).setAsyncSupported(true);
         contextHandler.addServlet(DumpServlet.class, "/dump/*");
         contextHandler.addServlet(DumpServlet.class, "*.upload");
+        contextHandler.addServlet(StreamingUploadServlet.class, "/stream/*").setAsyncSupported(true);
         contextHandler.addServlet(MaxRequestSizeErrorHandler.class, "/error/max-request-size");
 
         ErrorPageErrorHandler contextErrorHandler = new ErrorPageErrorHandler();
@@ -67,16 +120,57 @@ public class Main
 
         MaxRequestSizeHandler maxRequestSizeHandler = new MaxRequestSizeHandler(1024);
         maxRequestSizeHandler.addIncludePath("*.upload");
+        maxRequestSizeHandler.addIncludePath("/stream/*");
         maxRequestSizeHandler.addExcludePath("/dump/*");
+        maxRequestSizeHandler.setContentTypeLimit(ContentTypeLimits.MULTIPART, 4096);
+        maxRequestSizeHandler.addResponseLimit("*.upload", 65536);
 
         HandlerList handlers = new HandlerList();
         handlers.addHandler(maxRequestSizeHandler);
         handlers.addHandler(contextHandler);
         handlers.addHandler(new DefaultHandler());
 
-        gzipHandler.setHandler(handlers);
+        // Ahead of the MaxRequestSizeHandler, so that an over-cap client is rejected before its body is read.
+        ConcurrentUploadLimitHandler concurrentUploadLimitHandler = new ConcurrentUploadLimitHandler(8);
+        concurrentUploadLimitHandler.setHandler(handlers);
+
+        gzipHandler.setHandler(concurrentUploadLimitHandler);
 
-        server.setHandler(gzipHandler);
+        // Outside of the GzipHandler, so it counts the compressed response bytes.
+        ResponseSizeMetricsHandler responseSizeMetricsHandler = new ResponseSizeMetricsHandler();
+        responseSizeMetricsHandler.setHandler(gzipHandler);
+
+        server.addBean(new SizeLimitMetrics());
+        if (auditLogFile != null)
+            server.addBean(new RejectionAuditLog(auditLogFile, 4096));
+
+        // Authenticated users in the "premium" role may upload more, resolved off the request threads.
+        RoleLimitResolver roleLimitResolver = new RoleLimitResolver();
+        roleLimitResolver.put("premium", 65536);
+        // A small pool of its own with a bounded queue, so that a slow resolver can't take the request threads.
+        QueuedThreadPool principalLimitExecutor = new QueuedThreadPool(2, 1, 60000, 0, new BlockingArrayQueue<>(256), null);
+        principalLimitExecutor.setName("principal-limits");
+        server.addBean(principalLimitExecutor);
+        server.addBean(new PrincipalLimitCache(roleLimitResolver, principalLimitExecutor, 1024, 5, TimeUnit.MINUTES));
+
+        server.setHandler(responseSizeMetricsHandler);
+
+        // Opt-in forensics: capture the first 512 bytes of one in 10 rejected bodies.
+        if (Boolean.getBoolean("captureRejectedBodies"))
+            enableRejectedBodyCapture(server, new RejectedBodyCapture(32, 512, 10));
         return server;
     }
+
+    /**
+     * Capture rejected request bodies, and dump them at {@code /admin/rejected-bodies} for local clients only.
+     * The endpoint is not mapped at all unless the capture is enabled.
+     *
+     * @param server a server created by {@link #newServer(int, boolean, Path)}
+     * @param capture the capture
+     */
+    public static void enableRejectedBodyCapture(Server server, RejectedBodyCapture capture)
+    {
+        server.addBean(capture);
+        server.getChildHandlerByClass(ServletContextHandler.class).addServlet(RejectedBodyCaptureServlet.class, "/admin/rejected-bodies");
+    }
 }
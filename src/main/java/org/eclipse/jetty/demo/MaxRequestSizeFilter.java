@@ -19,6 +19,7 @@
 package org.eclipse.jetty.demo;
 
 import java.io.IOException;
+import java.util.Collections;
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -27,16 +28,28 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
+import org.eclipse.jetty.server.Authentication;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.UserIdentity;
 
 public class MaxRequestSizeFilter implements Filter
 {
-    private long maxSize;
+    private static final String MAX_SIZE_PREFIX = "maxSize.";
+
+    private ContentTypeLimits limits;
+    private long maxResponseSize;
 
     @Override
     public void init(FilterConfig filterConfig)
     {
-        maxSize = getInitInteger(filterConfig, "maxSize", 1024);
+        limits = new ContentTypeLimits(getInitInteger(filterConfig, "maxSize", 1024));
+        // Per content type limits, for example "maxSize.multipart/form-data"
+        for (String name : Collections.list(filterConfig.getInitParameterNames()))
+        {
+            if (name.startsWith(MAX_SIZE_PREFIX))
+                limits.put(name.substring(MAX_SIZE_PREFIX.length()), getInitInteger(filterConfig, name, (int)limits.getDefaultLimit()));
+        }
+        maxResponseSize = getInitInteger(filterConfig, "maxResponseSize", -1);
     }
 
     private int getInitInteger(FilterConfig config, String key, int defValue)
@@ -62,15 +75,34 @@ public class MaxRequestSizeFilter implements Filter
             && isCoveredRequest(request))
         {
             Request baseRequest = Request.getBaseRequest(request);
-            MaxRequestSizeInterceptor.add(baseRequest, maxSize);
+            MaxRequestSizeInterceptor.add(baseRequest, getLimits(baseRequest));
+        }
+        if (maxResponseSize >= 0
+            && !MaxResponseSizeInterceptor.isIntercepted(request)
+            && request.getDispatcherType() == DispatcherType.REQUEST)
+        {
+            MaxResponseSizeInterceptor.add(Request.getBaseRequest(request), maxResponseSize);
         }
         chain.doFilter(request, response);
     }
 
+    private ContentTypeLimits getLimits(Request baseRequest)
+    {
+        // Authenticated users may have their own limit, resolved by their principal and roles,
+        // which overrides the limits by content type as well.
+        Authentication authentication = baseRequest.getAuthentication();
+        if (!(authentication instanceof Authentication.User))
+            return limits;
+        PrincipalLimitCache cache = PrincipalLimitCache.of(baseRequest);
+        if (cache == null)
+            return limits;
+        UserIdentity user = ((Authentication.User)authentication).getUserIdentity();
+        return limits.withUserLimit(cache.getLimit(user, limits.getDefaultLimit()));
+    }
+
     private boolean isCoveredRequest(ServletRequest request)
     {
         // TODO: make sure this is the kind of request you want to limit based on information in request
-        // Username? Roles?
         // Paths (but you should limit your url-pattern on this filter instead)
         // User-Agent?
         // Remote Address?
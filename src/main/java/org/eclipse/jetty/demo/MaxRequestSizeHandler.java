@@ -22,6 +22,8 @@ import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.pathmap.MatchedResource;
+import org.eclipse.jetty.http.pathmap.PathMappings;
 import org.eclipse.jetty.http.pathmap.PathSpecSet;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
@@ -29,16 +31,28 @@ import org.eclipse.jetty.util.IncludeExclude;
 
 public class MaxRequestSizeHandler extends AbstractHandler
 {
-    private final long maxSize;
+    private final ContentTypeLimits limits;
     private final IncludeExclude<String> methods = new IncludeExclude<>();
     private final IncludeExclude<String> paths = new IncludeExclude<>(PathSpecSet.class);
+    private final PathMappings<Long> responseLimits = new PathMappings<>();
 
     public MaxRequestSizeHandler(long maxSize)
     {
-        this.maxSize = maxSize;
+        this.limits = new ContentTypeLimits(maxSize);
         this.methods.getIncluded().add("POST");
     }
 
+    /**
+     * Use a different limit for requests of a content type, verified against the body itself.
+     *
+     * @param mimeType the mime type, for example {@code multipart/form-data}
+     * @param maxSize the max request size for that type
+     */
+    public void setContentTypeLimit(String mimeType, long maxSize)
+    {
+        limits.put(mimeType, maxSize);
+    }
+
     public void addExcludePath(String path)
     {
         paths.getExcluded().add(path);
@@ -49,6 +63,17 @@ public class MaxRequestSizeHandler extends AbstractHandler
         paths.getIncluded().add(path);
     }
 
+    /**
+     * Limit the size of responses to requests matching a path spec, whatever their method.
+     *
+     * @param pathSpec the path spec of the requests to limit
+     * @param maxResponseSize the max response size, before compression
+     */
+    public void addResponseLimit(String pathSpec, long maxResponseSize)
+    {
+        responseLimits.put(pathSpec, maxResponseSize);
+    }
+
     protected boolean isLimited(Request request)
     {
         if (!methods.test(request.getMethod()))
@@ -68,7 +93,16 @@ public class MaxRequestSizeHandler extends AbstractHandler
             && baseRequest.getDispatcherType() == DispatcherType.REQUEST
             && isLimited(baseRequest))
         {
-            MaxRequestSizeInterceptor.add(baseRequest, maxSize);
+            MaxRequestSizeInterceptor.add(baseRequest, limits);
+        }
+
+        if (!MaxResponseSizeInterceptor.isIntercepted(baseRequest)
+            && baseRequest.getDispatcherType() == DispatcherType.REQUEST
+            && baseRequest.getRequestURI() != null)
+        {
+            MatchedResource<Long> responseLimit = responseLimits.getMatched(baseRequest.getRequestURI());
+            if (responseLimit != null)
+                MaxResponseSizeInterceptor.add(baseRequest, responseLimit.getResource());
         }
     }
 }
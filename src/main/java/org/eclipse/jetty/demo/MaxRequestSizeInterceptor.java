@@ -18,57 +18,155 @@
 
 package org.eclipse.jetty.demo;
 
+import java.nio.ByteBuffer;
 import javax.servlet.ServletRequest;
 
-import org.eclipse.jetty.server.HttpInput;
 import org.eclipse.jetty.server.Request;
 
-public class MaxRequestSizeInterceptor implements HttpInput.Interceptor
+/**
+ * The request size check of the {@link CompositeInputInterceptor} of a request.
+ */
+public class MaxRequestSizeInterceptor implements CompositeInputInterceptor.Check
 {
-    private static final String ATTR = MaxRequestSizeInterceptor.class.getName() + ".intercepted";
-    private final long maxRequestSize;
-    private long readBytes;
+    private final Request request;
+    private final ContentTypeLimits limits;
+    private final SizeLimitMetrics metrics;
+    private final RejectionAuditLog auditLog;
+    private final RejectedBodyCapture capture;
+    private ByteBuffer captureBuffer;
+    private long maxRequestSize;
+    private boolean sniffed;
+    private boolean rejected;
+
+    /**
+     * @param request the request
+     * @return the request size check of the request, or null if none is installed
+     */
+    public static MaxRequestSizeInterceptor get(ServletRequest request)
+    {
+        Request baseRequest = Request.getBaseRequest(request);
+        CompositeInputInterceptor composite = baseRequest == null ? null : CompositeInputInterceptor.get(baseRequest);
+        return composite == null ? null : composite.getCheck(MaxRequestSizeInterceptor.class);
+    }
 
     public static boolean isIntercepted(ServletRequest request)
     {
-        Object interceptedAlready = request.getAttribute(ATTR);
-        if (interceptedAlready != null)
+        return get(request) != null;
+    }
+
+    /**
+     * @param request the request
+     * @return whether the body of the request has been rejected, and will not be read any further
+     */
+    public static boolean isRejected(ServletRequest request)
+    {
+        MaxRequestSizeInterceptor check = get(request);
+        return check != null && check.isRejected();
+    }
+
+    public static void add(Request request, long maxSize)
+    {
+        add(request, new ContentTypeLimits(maxSize));
+    }
+
+    /**
+     * Limit the request size by its declared content type, switching to the stricter
+     * limit if the first bytes of the body reveal a different type.
+     *
+     * @param request the request to limit
+     * @param limits the limits by content type
+     */
+    public static void add(Request request, ContentTypeLimits limits)
+    {
+        SizeLimitMetrics metrics = SizeLimitMetrics.of(request);
+        RejectionAuditLog auditLog = RejectionAuditLog.of(request);
+        MaxRequestSizeInterceptor check = CompositeInputInterceptor.ensure(request)
+            .addCheck(MaxRequestSizeInterceptor.class, () -> new MaxRequestSizeInterceptor(request, limits, metrics, auditLog));
+
+        long maxSize = limits.getLimit(request.getContentType());
+        if (request.getContentLengthLong() > maxSize)
         {
-            return (boolean)interceptedAlready;
+            if (auditLog != null)
+                auditLog.record(request, RejectionAuditLog.REASON_DECLARED_LENGTH, maxSize, 0);
+            check.reject(maxSize);
         }
-        return false;
     }
 
-    public static void add(Request request, long maxSize)
+    public MaxRequestSizeInterceptor(Request request, ContentTypeLimits limits, SizeLimitMetrics metrics, RejectionAuditLog auditLog)
+    {
+        this.request = request;
+        this.limits = limits;
+        this.metrics = metrics;
+        this.auditLog = auditLog;
+        this.capture = RejectedBodyCapture.of(request);
+        this.maxRequestSize = limits.getLimit(request.getContentType());
+    }
+
+    /**
+     * @return whether the body of the request has been rejected, and will not be read any further
+     */
+    public boolean isRejected()
     {
-        assertMaxRequestSize(request.getContentLengthLong(), maxSize);
+        return rejected;
+    }
 
-        HttpInput httpInput = request.getHttpInput();
-        httpInput.addInterceptor(new MaxRequestSizeInterceptor(maxSize));
-        request.setAttribute(ATTR, true);
+    private void reject(long maxSize)
+    {
+        rejected = true;
+        RejectedStreamFlowControlStrategy.onRejected(request);
+        metrics.onRequestRejected();
+        throw new MaxRequestSizeExceededException("Exceeded max request size of " + maxSize);
     }
 
-    private static void assertMaxRequestSize(long contentLength, long maxRequestSize)
+    @Override
+    public void onContent(ByteBuffer content, long readBytes)
     {
-        if (contentLength > maxRequestSize)
+        int remaining = content.remaining();
+        if (!sniffed)
+        {
+            // Sniff the first bytes in place, the content is not copied nor consumed.
+            sniffed = true;
+            String sniffedType = ContentTypeLimits.sniff(content, request.getContentType());
+            maxRequestSize = limits.getLimit(request.getContentType(), sniffedType);
+            if (capture != null)
+                captureBuffer = capture.acquire();
+        }
+        if (captureBuffer != null && captureBuffer.hasRemaining())
+            copy(content, captureBuffer);
+        metrics.onRequestBytes(remaining);
+        if (readBytes > maxRequestSize)
         {
-            throw new MaxRequestSizeExceededException("Exceeded max request size of " + maxRequestSize);
+            if (auditLog != null)
+                auditLog.record(request, RejectionAuditLog.REASON_BODY_SIZE, maxRequestSize, readBytes);
+            if (captureBuffer != null)
+            {
+                captureBuffer.flip();
+                capture.publish(request, captureBuffer, maxRequestSize, readBytes);
+                captureBuffer = null;
+            }
+            reject(maxRequestSize);
         }
     }
 
-    public MaxRequestSizeInterceptor(long maxRequestSize)
+    private static void copy(ByteBuffer from, ByteBuffer to)
     {
-        this.maxRequestSize = maxRequestSize;
+        // Absolute reads, the content is left untouched for the application.
+        int length = Math.min(from.remaining(), to.remaining());
+        int position = from.position();
+        for (int i = 0; i < length; i++)
+        {
+            to.put(from.get(position + i));
+        }
     }
 
     @Override
-    public HttpInput.Content readFrom(HttpInput.Content content)
+    public void destroy()
     {
-        if (content != null)
+        // Called when the request is recycled, return the capture buffer of a request that was not rejected.
+        if (captureBuffer != null)
         {
-            readBytes += content.remaining();
-            assertMaxRequestSize(readBytes, maxRequestSize);
+            capture.release(captureBuffer);
+            captureBuffer = null;
         }
-        return content;
     }
 }
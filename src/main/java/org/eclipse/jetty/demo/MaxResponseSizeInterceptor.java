@@ -0,0 +1,106 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.ByteBuffer;
+import javax.servlet.ServletRequest;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * The response side counterpart of {@link MaxRequestSizeInterceptor}.
+ * <p>
+ * Counts the bytes written by the application, before any compression by the {@code GzipHandler},
+ * and fails the write that crosses the limit, which aborts a response that is already committed.
+ * </p>
+ */
+public class MaxResponseSizeInterceptor implements HttpOutput.Interceptor
+{
+    private final HttpOutput.Interceptor next;
+    private final Response response;
+    private final long maxResponseSize;
+    private final SizeLimitMetrics metrics;
+    private long writtenBytes;
+
+    /**
+     * @param request the request
+     * @return the response size check installed in the output interceptor chain of the request, or null if none is installed
+     */
+    public static MaxResponseSizeInterceptor get(ServletRequest request)
+    {
+        Request baseRequest = Request.getBaseRequest(request);
+        if (baseRequest == null)
+            return null;
+        HttpOutput.Interceptor interceptor = baseRequest.getResponse().getHttpOutput().getInterceptor();
+        while (interceptor != null)
+        {
+            if (interceptor instanceof MaxResponseSizeInterceptor)
+                return (MaxResponseSizeInterceptor)interceptor;
+            interceptor = interceptor.getNextInterceptor();
+        }
+        return null;
+    }
+
+    public static boolean isIntercepted(ServletRequest request)
+    {
+        return get(request) != null;
+    }
+
+    public static void add(Request request, long maxSize)
+    {
+        HttpOutput httpOutput = request.getResponse().getHttpOutput();
+        httpOutput.setInterceptor(new MaxResponseSizeInterceptor(httpOutput.getInterceptor(), request.getResponse(), maxSize, SizeLimitMetrics.of(request)));
+    }
+
+    public MaxResponseSizeInterceptor(HttpOutput.Interceptor next, Response response, long maxResponseSize, SizeLimitMetrics metrics)
+    {
+        this.next = next;
+        this.response = response;
+        this.maxResponseSize = maxResponseSize;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(ByteBuffer content, boolean last, Callback callback)
+    {
+        int length = content == null ? 0 : content.remaining();
+        writtenBytes += length;
+        // A declared Content-Length lets us fail before the first byte is sent.
+        if (writtenBytes > maxResponseSize || response.getLongContentLength() > maxResponseSize)
+        {
+            metrics.onResponseAborted();
+            callback.failed(new MaxResponseSizeExceededException("Exceeded max response size of " + maxResponseSize));
+            return;
+        }
+
+        metrics.onResponseBytes(length);
+        if (last)
+            metrics.onResponseComplete();
+        next.write(content, last, callback);
+    }
+
+    @Override
+    public HttpOutput.Interceptor getNextInterceptor()
+    {
+        return next;
+    }
+}
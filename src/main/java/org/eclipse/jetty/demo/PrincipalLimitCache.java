@@ -0,0 +1,172 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, expiring cache of per-principal request size limits.
+ * <p>
+ * Limits are resolved by a {@link PrincipalLimitResolver} on an {@link Executor},
+ * so a request never waits for the resolver: on a miss the default limit applies
+ * (or the previous limit, if expired) until the resolved limit is cached.
+ * The least recently used principals are evicted when the cache is full.
+ * </p>
+ */
+public class PrincipalLimitCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PrincipalLimitCache.class);
+
+    private final AutoLock lock = new AutoLock();
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final PrincipalLimitResolver resolver;
+    private final Executor executor;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    public PrincipalLimitCache(PrincipalLimitResolver resolver, Executor executor, int maxEntries, long ttl, TimeUnit unit)
+    {
+        this.resolver = resolver;
+        this.executor = executor;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * @param request the request
+     * @return the cache registered as a bean of the server of the request, or null
+     */
+    public static PrincipalLimitCache of(Request request)
+    {
+        Server server = request.getHttpChannel().getServer();
+        return server == null ? null : server.getBean(PrincipalLimitCache.class);
+    }
+
+    public int getEntryCount()
+    {
+        try (AutoLock l = lock.lock())
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @param user the authenticated user
+     * @param defaultLimit the limit to use while the limit of the user is not (yet) known
+     * @return the cached limit of the user, or the default limit
+     */
+    public long getLimit(UserIdentity user, long defaultLimit)
+    {
+        String name = user.getUserPrincipal().getName();
+        long now = System.nanoTime();
+        Entry entry;
+        long limit;
+        try (AutoLock l = lock.lock())
+        {
+            entry = entries.get(name);
+            if (entry == null)
+            {
+                entry = new Entry(defaultLimit);
+                entries.put(name, entry);
+                evict();
+            }
+            else if (entry.loading || now - entry.expires < 0)
+            {
+                return entry.limit;
+            }
+            entry.loading = true;
+            limit = entry.limit;
+        }
+
+        Entry loading = entry;
+        try
+        {
+            executor.execute(() -> load(name, loading, user, defaultLimit));
+        }
+        catch (Throwable x)
+        {
+            // For example a full queue, a later request tries again.
+            LOG.warn("Unable to resolve limit of {}", name, x);
+            try (AutoLock l = lock.lock())
+            {
+                loading.loading = false;
+            }
+        }
+        return limit;
+    }
+
+    private void load(String name, Entry entry, UserIdentity user, long defaultLimit)
+    {
+        long limit = defaultLimit;
+        try
+        {
+            limit = resolver.resolve(user, defaultLimit);
+        }
+        catch (Throwable x)
+        {
+            LOG.warn("Unable to resolve limit of {}", name, x);
+        }
+        complete(entry, limit);
+    }
+
+    private void complete(Entry entry, long limit)
+    {
+        try (AutoLock l = lock.lock())
+        {
+            // The entry may have been evicted meanwhile, in which case this is a no-op.
+            entry.limit = limit;
+            entry.expires = System.nanoTime() + ttlNanos;
+            entry.loading = false;
+        }
+    }
+
+    private void evict()
+    {
+        // Entries are in access order, so the least recently used come first.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext())
+        {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static class Entry
+    {
+        private long limit;
+        private long expires;
+        private boolean loading;
+
+        Entry(long limit)
+        {
+            this.limit = limit;
+        }
+    }
+}
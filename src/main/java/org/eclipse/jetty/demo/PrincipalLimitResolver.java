@@ -0,0 +1,40 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import org.eclipse.jetty.server.UserIdentity;
+
+/**
+ * Resolves the max request size of an authenticated user,
+ * for example from a directory of tenants and their upload tiers.
+ * <p>
+ * Resolution may block: it is performed by the {@link PrincipalLimitCache}
+ * away from the request threads, and its result is cached per principal.
+ * </p>
+ */
+public interface PrincipalLimitResolver
+{
+    /**
+     * @param user the authenticated user
+     * @param defaultLimit the limit that applies when the user has no specific limit
+     * @return the max request size of the user
+     * @throws Exception if the limit can't be resolved, in which case the default limit applies
+     */
+    long resolve(UserIdentity user, long defaultLimit) throws Exception;
+}
@@ -0,0 +1,215 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.demo.servlets.ResponseBuffer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.AutoLock;
+
+/**
+ * Sampled capture of the first bytes of rejected request bodies, for forensics.
+ * <p>
+ * A sampled request takes a direct staging buffer from a fixed pool, and the
+ * {@link MaxRequestSizeInterceptor} copies the first bytes of the body into it as the
+ * content flows. If the request is rejected, the staging buffer is swapped into a fixed
+ * ring of captures, and the buffer it replaces returns to the pool; otherwise the staging
+ * buffer returns to the pool when the request is recycled. All the buffers are allocated
+ * off-heap up front, so capturing allocates nothing, and when the pool is empty a
+ * sampled request is simply not captured.
+ * </p>
+ * <p>
+ * Add an instance as a bean on the {@link Server} to enable the capture.
+ * </p>
+ */
+public class RejectedBodyCapture
+{
+    private final AutoLock lock = new AutoLock();
+    private final BlockingQueue<ByteBuffer> staging;
+    private final Capture[] ring;
+    private final int captureSize;
+    private final int sampleRate;
+    private final AtomicLong sampled = new AtomicLong();
+    private final LongAdder missed = new LongAdder();
+    private long published;
+
+    /**
+     * @param capacity the number of captures kept in the ring, and of requests that can be captured concurrently
+     * @param captureSize the number of bytes captured from the start of a body
+     * @param sampleRate capture one in {@code sampleRate} of the limited requests
+     */
+    public RejectedBodyCapture(int capacity, int captureSize, int sampleRate)
+    {
+        this.captureSize = captureSize;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.staging = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            staging.offer(ByteBuffer.allocateDirect(captureSize));
+        }
+        this.ring = new Capture[capacity];
+        for (int i = 0; i < capacity; i++)
+        {
+            ring[i] = new Capture(ByteBuffer.allocateDirect(captureSize));
+        }
+    }
+
+    /**
+     * @param request the request
+     * @return the capture of the server, or null if there is none or for a {@link ServerWarmup} request
+     */
+    public static RejectedBodyCapture of(Request request)
+    {
+        return ServerWarmup.getServerBean(request, RejectedBodyCapture.class);
+    }
+
+    public int getCaptureSize()
+    {
+        return captureSize;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /**
+     * @return the number of sampled requests that were not captured because no staging buffer was available
+     */
+    public long getMissed()
+    {
+        return missed.sum();
+    }
+
+    /**
+     * @return the number of captured rejections, including those overwritten in the ring
+     */
+    public long getPublished()
+    {
+        try (AutoLock l = lock.lock())
+        {
+            return published;
+        }
+    }
+
+    /**
+     * @return a cleared staging buffer if the request is sampled and a buffer is available, otherwise null
+     */
+    ByteBuffer acquire()
+    {
+        if (sampled.getAndIncrement() % sampleRate != 0)
+            return null;
+        ByteBuffer buffer = staging.poll();
+        if (buffer == null)
+            missed.increment();
+        else
+            buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer a staging buffer that is not published
+     */
+    void release(ByteBuffer buffer)
+    {
+        staging.offer(buffer);
+    }
+
+    /**
+     * Publish the staging buffer of a rejected request in the ring.
+     *
+     * @param request the rejected request
+     * @param buffer the staging buffer, flipped for reading
+     * @param maxSize the limit that was exceeded
+     * @param bytesRead the bytes read before the rejection
+     */
+    void publish(Request request, ByteBuffer buffer, long maxSize, long bytesRead)
+    {
+        ByteBuffer replaced;
+        try (AutoLock l = lock.lock())
+        {
+            Capture capture = ring[(int)(published++ % ring.length)];
+            replaced = capture.buffer;
+            capture.buffer = buffer;
+            capture.timeStamp = System.currentTimeMillis();
+            capture.remoteAddress = request.getRemoteAddr();
+            capture.path = request.getRequestURI();
+            capture.contentType = request.getContentType();
+            capture.maxSize = maxSize;
+            capture.bytesRead = bytesRead;
+        }
+        release(replaced);
+    }
+
+    /**
+     * Dump the captures in the ring, most recent first, with non printable bytes escaped.
+     *
+     * @param out the buffer to dump to
+     */
+    public void dump(ResponseBuffer out)
+    {
+        try (AutoLock l = lock.lock())
+        {
+            long count = Math.min(published, ring.length);
+            for (long i = 1; i <= count; i++)
+            {
+                Capture capture = ring[(int)((published - i) % ring.length)];
+                out.append("capture[").append(published - i).append("] time=").append(capture.timeStamp)
+                    .append(" remote=").append(capture.remoteAddress)
+                    .append(" path=").append(capture.path)
+                    .append(" contentType=").append(capture.contentType)
+                    .append(" bytesRead=").append(capture.bytesRead)
+                    .append(" maxSize=").append(capture.maxSize)
+                    .newLine();
+                ByteBuffer buffer = capture.buffer;
+                for (int j = buffer.position(); j < buffer.limit(); j++)
+                {
+                    int b = buffer.get(j) & 0xFF;
+                    if (b >= 0x20 && b < 0x7F && b != '\\')
+                        out.append((char)b);
+                    else
+                        out.append("\\x").append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                out.newLine();
+            }
+        }
+    }
+
+    private static class Capture
+    {
+        private ByteBuffer buffer;
+        private long timeStamp;
+        private String remoteAddress;
+        private String path;
+        private String contentType;
+        private long maxSize;
+        private long bytesRead;
+
+        Capture(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+}
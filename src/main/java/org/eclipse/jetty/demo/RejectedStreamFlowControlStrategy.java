@@ -0,0 +1,84 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import javax.servlet.ServletRequest;
+
+import org.eclipse.jetty.http2.BufferingFlowControlStrategy;
+import org.eclipse.jetty.http2.ISession;
+import org.eclipse.jetty.http2.IStream;
+import org.eclipse.jetty.http2.server.HttpChannelOverHTTP2;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * HTTP/2 flow control that stops granting stream window to request bodies
+ * that have been {@link MaxRequestSizeInterceptor#isRejected(ServletRequest) rejected}.
+ * <p>
+ * The rejection is recorded on the stream itself when the body is rejected, rather than looked up
+ * through the channel of the stream, which may be recycled or serving another stream by the time
+ * the late data of the rejected stream is consumed.
+ * The data of a rejected stream that is still consumed (for example discarded once the stream
+ * is reset) only replenishes the session window, so the other streams of the connection are not
+ * stalled, while the rejected stream can't send more than what is left of its current window.
+ * </p>
+ */
+public class RejectedStreamFlowControlStrategy extends BufferingFlowControlStrategy
+{
+    private static final String REJECTED_ATTR = RejectedStreamFlowControlStrategy.class.getName() + ".rejected";
+
+    /**
+     * Record the rejection of the body of a request on its HTTP/2 stream, if any.
+     *
+     * @param request the rejected request
+     */
+    public static void onRejected(Request request)
+    {
+        HttpChannel channel = request.getHttpChannel();
+        if (channel instanceof HttpChannelOverHTTP2)
+        {
+            IStream stream = ((HttpChannelOverHTTP2)channel).getHttpTransport().getStream();
+            if (stream != null)
+                onRejected(stream);
+        }
+    }
+
+    static void onRejected(IStream stream)
+    {
+        stream.setAttribute(REJECTED_ATTR, Boolean.TRUE);
+    }
+
+    static boolean isRejected(IStream stream)
+    {
+        return stream.getAttribute(REJECTED_ATTR) != null;
+    }
+
+    public RejectedStreamFlowControlStrategy(float bufferRatio)
+    {
+        super(bufferRatio);
+    }
+
+    @Override
+    public void onDataConsumed(ISession session, IStream stream, int length)
+    {
+        if (stream != null && isRejected(stream))
+            stream = null;
+        super.onDataConsumed(session, stream, length);
+    }
+}
@@ -0,0 +1,314 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Audit trail of rejected requests that never blocks the rejecting thread.
+ * <p>
+ * Rejections are copied into a preallocated ring of records, claimed with a
+ * compare-and-set on the producer sequence, and a single background thread writes
+ * them in batches to a size-rolled file. When the ring is full, the rejection is
+ * counted as dropped rather than waiting for the writer, so a flood of rejected
+ * requests can't be amplified into back-pressure on the request threads.
+ * </p>
+ * <p>
+ * Add an instance as a bean on the {@link Server} for the size limit interceptors to find it.
+ * </p>
+ */
+public class RejectionAuditLog extends AbstractLifeCycle
+{
+    public static final String REASON_DECLARED_LENGTH = "declared-length";
+    public static final String REASON_BODY_SIZE = "body-size";
+
+    private static final Logger LOG = LoggerFactory.getLogger(RejectionAuditLog.class);
+
+    private final Path file;
+    private final int mask;
+    private final Record[] records;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private long maxFileSize = 10 * 1024 * 1024;
+    private int maxFiles = 5;
+    private volatile boolean running;
+    private Thread writerThread;
+    private OutputStream output;
+    private long fileSize;
+
+    /**
+     * @param request the request
+     * @return the audit log of the server, or null if there is none or for a {@link ServerWarmup} request
+     */
+    public static RejectionAuditLog of(Request request)
+    {
+        return ServerWarmup.getServerBean(request, RejectionAuditLog.class);
+    }
+
+    /**
+     * @param file the audit file, rolled to {@code file.1}, {@code file.2}, ... when full
+     * @param capacity the number of records in the ring, rounded up to a power of two
+     */
+    public RejectionAuditLog(Path file, int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.file = file;
+        this.mask = size - 1;
+        this.records = new Record[size];
+        for (int i = 0; i < size; i++)
+        {
+            records[i] = new Record();
+        }
+        // published[i] holds the sequence + 1 of the last record written to slot i.
+        this.published = new AtomicLongArray(size);
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    public int getCapacity()
+    {
+        return records.length;
+    }
+
+    public long getMaxFileSize()
+    {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize)
+    {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public int getMaxFiles()
+    {
+        return maxFiles;
+    }
+
+    public void setMaxFiles(int maxFiles)
+    {
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * @return the number of rejections not recorded because the ring was full
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of rejections written to the file
+     */
+    public long getWritten()
+    {
+        return written.sum();
+    }
+
+    /**
+     * Record a rejection of a request.
+     *
+     * @param request the rejected request
+     * @param reason the reason, one of the {@code REASON_*} constants
+     * @param maxSize the limit that was exceeded
+     * @param bytesRead the bytes read before the rejection
+     * @return false if the ring was full and the record was dropped
+     */
+    public boolean record(Request request, String reason, long maxSize, long bytesRead)
+    {
+        return record(request.getRemoteAddr(), request.getRequestURI(), request.getContentLengthLong(), reason, maxSize, bytesRead);
+    }
+
+    /**
+     * Record a rejection of a request.
+     *
+     * @param remoteAddress the remote address of the rejected request
+     * @param path the path of the rejected request
+     * @param declaredLength the declared content length, or -1 if none
+     * @param reason the reason, one of the {@code REASON_*} constants
+     * @param maxSize the limit that was exceeded
+     * @param bytesRead the bytes read before the rejection
+     * @return false if the ring was full and the record was dropped
+     */
+    public boolean record(String remoteAddress, String path, long declaredLength, String reason, long maxSize, long bytesRead)
+    {
+        long sequence;
+        do
+        {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= records.length)
+            {
+                dropped.increment();
+                return false;
+            }
+        }
+        while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int)(sequence & mask);
+        Record record = records[index];
+        record.timestamp = System.currentTimeMillis();
+        record.remoteAddress = remoteAddress;
+        record.path = path;
+        record.declaredLength = declaredLength;
+        record.bytesRead = bytesRead;
+        record.maxSize = maxSize;
+        record.reason = reason;
+        published.lazySet(index, sequence + 1);
+        return true;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        openFile();
+        running = true;
+        writerThread = new Thread(this::writeRecords, "rejection-audit-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        writerThread = null;
+        output.close();
+        output = null;
+        super.doStop();
+    }
+
+    private void writeRecords()
+    {
+        boolean drain = true;
+        while (running || drain)
+        {
+            drain = running;
+            try
+            {
+                int batch = 0;
+                long sequence = consumed.get();
+                int index = (int)(sequence & mask);
+                while (published.get(index) == sequence + 1)
+                {
+                    write(records[index]);
+                    consumed.lazySet(++sequence);
+                    index = (int)(sequence & mask);
+                    batch++;
+                }
+
+                if (batch > 0)
+                {
+                    output.flush();
+                    written.add(batch);
+                    drain = true;
+                }
+                else if (running)
+                {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                }
+            }
+            catch (IOException x)
+            {
+                LOG.warn("Unable to write rejection audit log {}", file, x);
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+    }
+
+    private void write(Record record) throws IOException
+    {
+        if (fileSize > maxFileSize)
+            rollFile();
+
+        String line = Instant.ofEpochMilli(record.timestamp) + "\t" +
+            record.remoteAddress + "\t" +
+            record.path + "\t" +
+            record.declaredLength + "\t" +
+            record.bytesRead + "\t" +
+            record.maxSize + "\t" +
+            record.reason + "\n";
+        // The file is rolled by size in bytes, and paths may not be ASCII.
+        byte[] bytes = line.getBytes(UTF_8);
+        output.write(bytes);
+        fileSize += bytes.length;
+    }
+
+    private void openFile() throws IOException
+    {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        output = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        fileSize = Files.size(file);
+    }
+
+    private void rollFile() throws IOException
+    {
+        output.close();
+        for (int i = maxFiles - 1; i > 0; i--)
+        {
+            Path older = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(older))
+                Files.move(older, file.resolveSibling(file.getFileName() + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+    }
+
+    private static class Record
+    {
+        private long timestamp;
+        private String remoteAddress;
+        private String path;
+        private long declaredLength;
+        private long bytesRead;
+        private long maxSize;
+        private String reason;
+    }
+}
@@ -0,0 +1,226 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Exposes a request body as a {@link Flow.Publisher} of {@link ByteBuffer}s.
+ * <p>
+ * The body is read with the servlet non-blocking API, after all the installed
+ * {@code HttpInput.Interceptor}s (inflation, {@link MaxRequestSizeInterceptor}, ...).
+ * Content is only read while the subscriber has outstanding demand: without demand
+ * the input is not asked whether it is ready, so no further network read is
+ * scheduled and TCP (or HTTP/2) flow control pushes back on the client.
+ * A {@link MaxRequestSizeExceededException} is signalled with {@code onError}.
+ * </p>
+ * <p>
+ * Requires that the request was put in asynchronous mode; the publisher accepts a single subscriber
+ * and each delivered buffer is owned by the subscriber.
+ * </p>
+ */
+public class RequestBodyPublisher implements Flow.Publisher<ByteBuffer>
+{
+    private final ServletInputStream input;
+    private final int bufferSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public RequestBodyPublisher(AsyncContext asyncContext) throws IOException
+    {
+        this(asyncContext, 4096);
+    }
+
+    public RequestBodyPublisher(AsyncContext asyncContext, int bufferSize) throws IOException
+    {
+        this.input = asyncContext.getRequest().getInputStream();
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber)
+    {
+        if (!subscribed.compareAndSet(false, true))
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                @Override
+                public void request(long n)
+                {
+                }
+
+                @Override
+                public void cancel()
+                {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Request body already subscribed"));
+            return;
+        }
+
+        BodySubscription subscription = new BodySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        input.setReadListener(subscription);
+    }
+
+    private static Throwable unwrap(Throwable failure)
+    {
+        // HttpInput reports an interceptor failure as the cause of an IOException.
+        if (failure instanceof IOException && failure.getCause() instanceof MaxRequestSizeExceededException)
+            return failure.getCause();
+        return failure;
+    }
+
+    private class BodySubscription implements Flow.Subscription, ReadListener
+    {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean ready;
+        private volatile boolean allDataRead;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+        private boolean terminated;
+        private boolean eof;
+
+        BodySubscription(Flow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                failure = new IllegalArgumentException("Non-positive demand " + n);
+            }
+            else
+            {
+                demand.getAndAccumulate(n, (current, added) ->
+                {
+                    long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+        }
+
+        @Override
+        public void onDataAvailable()
+        {
+            ready = true;
+            drain();
+        }
+
+        @Override
+        public void onAllDataRead()
+        {
+            allDataRead = true;
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable x)
+        {
+            failure = unwrap(x);
+            drain();
+        }
+
+        /**
+         * Serializes reads and signals, whichever thread (container or subscriber) triggers them.
+         */
+        private void drain()
+        {
+            if (pending.getAndIncrement() != 0)
+                return;
+
+            do
+            {
+                if (!terminated)
+                    read();
+            }
+            while (pending.decrementAndGet() != 0);
+        }
+
+        private void read()
+        {
+            try
+            {
+                // The input is only asked whether it is ready after the container called onDataAvailable()
+                // (so not before the read listener is installed) and until it answers false. Asking again,
+                // or reading the end of the content again, would ask the connection for content while
+                // a read is already pending, possibly still after the response completed.
+                while (ready && !eof && !allDataRead && !cancelled && failure == null && demand.get() > 0)
+                {
+                    // Cleared before asking, so that an onDataAvailable() racing with a false answer is not lost.
+                    ready = false;
+                    if (!input.isReady())
+                        break;
+                    ready = true;
+
+                    byte[] bytes = new byte[bufferSize];
+                    int read = input.read(bytes);
+                    if (read < 0)
+                    {
+                        eof = true;
+                        break;
+                    }
+                    if (read > 0)
+                    {
+                        demand.decrementAndGet();
+                        subscriber.onNext(ByteBuffer.wrap(bytes, 0, read));
+                    }
+                }
+            }
+            catch (Throwable x)
+            {
+                failure = unwrap(x);
+            }
+
+            if (cancelled)
+            {
+                terminated = true;
+            }
+            else if (failure != null)
+            {
+                terminated = true;
+                subscriber.onError(failure);
+            }
+            else if (allDataRead)
+            {
+                terminated = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * Counts the response bytes as they are handed to the connection.
+ * <p>
+ * Wrap the {@code GzipHandler} with this handler so that its interceptor is installed
+ * underneath the compressing interceptor, and so counts the compressed bytes, while
+ * {@link MaxResponseSizeInterceptor} counts the bytes written by the application.
+ * </p>
+ */
+public class ResponseSizeMetricsHandler extends HandlerWrapper
+{
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        HttpOutput httpOutput = baseRequest.getResponse().getHttpOutput();
+        httpOutput.setInterceptor(new WireBytesInterceptor(httpOutput.getInterceptor(), SizeLimitMetrics.of(baseRequest)));
+        super.handle(target, baseRequest, request, response);
+    }
+
+    private static class WireBytesInterceptor implements HttpOutput.Interceptor
+    {
+        private final HttpOutput.Interceptor next;
+        private final SizeLimitMetrics metrics;
+
+        WireBytesInterceptor(HttpOutput.Interceptor next, SizeLimitMetrics metrics)
+        {
+            this.next = next;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(ByteBuffer content, boolean last, Callback callback)
+        {
+            if (content != null)
+                metrics.onResponseWireBytes(content.remaining());
+            next.write(content, last, callback);
+        }
+
+        @Override
+        public HttpOutput.Interceptor getNextInterceptor()
+        {
+            return next;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.server.UserIdentity;
+
+/**
+ * A {@link PrincipalLimitResolver} that grants the largest limit of any role the user is in.
+ */
+public class RoleLimitResolver implements PrincipalLimitResolver
+{
+    private final Map<String, Long> roleLimits = new ConcurrentHashMap<>();
+
+    public void put(String role, long maxSize)
+    {
+        roleLimits.put(role, maxSize);
+    }
+
+    @Override
+    public long resolve(UserIdentity user, long defaultLimit)
+    {
+        long limit = defaultLimit;
+        for (Map.Entry<String, Long> entry : roleLimits.entrySet())
+        {
+            if (entry.getValue() > limit && user.isUserInRole(entry.getKey(), null))
+                limit = entry.getValue();
+        }
+        return limit;
+    }
+}
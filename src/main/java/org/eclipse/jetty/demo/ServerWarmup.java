@@ -0,0 +1,374 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Warms up the handler tree of a {@link Server} before it accepts network traffic.
+ * <p>
+ * The server is started with its network connectors held back, a mix of synthetic requests
+ * is driven through a {@link LocalConnector} so that the {@code GzipHandler}, the interceptors
+ * and the servlets get JIT compiled, and only then are the network connectors started.
+ * The latency of the first and the last warm-up requests is reported, as an estimate of what
+ * the first real requests would have seen without, and will see with, the warm-up.
+ * </p>
+ * <p>
+ * Warm-up requests are real requests to the {@code /dump} and {@code /stream/warmup} paths
+ * of the {@link Main} server, but they are not counted by the {@link SizeLimitMetrics}, nor are
+ * their rejections audited or captured: those look up their server bean with {@link #getServerBean(Request, Class)}.
+ * </p>
+ */
+public class ServerWarmup
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ServerWarmup.class);
+    private static final int WINDOW = 100;
+
+    /**
+     * The kinds of synthetic requests.
+     */
+    public enum Kind
+    {
+        GET(HttpStatus.OK_200),
+        CONTENT_LENGTH_POST(HttpStatus.OK_200),
+        CHUNKED_POST(HttpStatus.OK_200),
+        GZIP_POST(HttpStatus.OK_200),
+        OVER_LIMIT(HttpStatus.BAD_REQUEST_400);
+
+        private final int expectedStatus;
+
+        Kind(int expectedStatus)
+        {
+            this.expectedStatus = expectedStatus;
+        }
+
+        /**
+         * @return the status of a successful warm-up request of this kind
+         */
+        public int getExpectedStatus()
+        {
+            return expectedStatus;
+        }
+    }
+
+    private final Map<Kind, Integer> weights = new EnumMap<>(Kind.class);
+    private int requests = 10_000;
+
+    public ServerWarmup()
+    {
+        weights.put(Kind.GET, 4);
+        weights.put(Kind.CONTENT_LENGTH_POST, 2);
+        weights.put(Kind.CHUNKED_POST, 2);
+        weights.put(Kind.GZIP_POST, 1);
+        weights.put(Kind.OVER_LIMIT, 1);
+    }
+
+    public int getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * @param requests the number of warm-up requests
+     */
+    public void setRequests(int requests)
+    {
+        this.requests = requests;
+    }
+
+    /**
+     * @param kind the kind of request
+     * @param weight the relative share of this kind of request in the mix, 0 to disable it
+     */
+    public void setWeight(Kind kind, int weight)
+    {
+        weights.put(kind, weight);
+    }
+
+    /**
+     * The single place where synthetic warm-up requests are kept away from the server beans
+     * that account for real traffic, such as metrics and audits.
+     *
+     * @param request a request
+     * @param type the type of the bean
+     * @param <T> the type of the bean
+     * @return the bean of the server of the request, or null if there is none or for a warm-up request
+     */
+    public static <T> T getServerBean(Request request, Class<T> type)
+    {
+        if (request.getHttpChannel().getConnector() instanceof WarmUpConnector)
+            return null;
+        Server server = request.getHttpChannel().getServer();
+        return server == null ? null : server.getBean(type);
+    }
+
+    /**
+     * Start the server, warming it up before its network connectors are started.
+     *
+     * @param server the server to start
+     * @return the latency report of the warm-up
+     * @throws Exception if the server fails to start
+     */
+    public Report start(Server server) throws Exception
+    {
+        Connector[] connectors = server.getConnectors();
+        for (Connector connector : connectors)
+        {
+            server.removeConnector(connector);
+        }
+        LocalConnector localConnector = new WarmUpConnector(server);
+        server.addConnector(localConnector);
+
+        server.start();
+        Report report;
+        try
+        {
+            report = warmUp(localConnector);
+        }
+        finally
+        {
+            // Removing the started local connector stops it.
+            server.removeConnector(localConnector);
+            for (Connector connector : connectors)
+            {
+                server.addConnector(connector);
+                // Connectors added to a started server are not managed by default.
+                server.manage(connector);
+                connector.start();
+            }
+        }
+        LOG.info("Warm-up {}", report);
+        return report;
+    }
+
+    private Report warmUp(LocalConnector connector) throws Exception
+    {
+        List<Kind> mix = new ArrayList<>();
+        Map<Kind, ByteBuffer> requestsByKind = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values())
+        {
+            requestsByKind.put(kind, newRequest(kind));
+            for (int i = weights.getOrDefault(kind, 0); i > 0; i--)
+            {
+                mix.add(kind);
+            }
+        }
+        if (mix.isEmpty())
+            return new Report(0, 0, new long[0]);
+
+        long[] latencies = new long[requests];
+        int failures = 0;
+        for (int i = 0; i < requests; i++)
+        {
+            Kind kind = mix.get(i % mix.size());
+            long start = System.nanoTime();
+            ByteBuffer response = connector.getResponse(requestsByKind.get(kind).slice(), 5, TimeUnit.SECONDS);
+            latencies[i] = System.nanoTime() - start;
+            int status = getStatus(response);
+            if (status != kind.getExpectedStatus())
+            {
+                if (failures++ == 0)
+                    LOG.warn("Warm-up {} request got status {} instead of {}", kind, status, kind.getExpectedStatus());
+            }
+        }
+        return new Report(requests, failures, latencies);
+    }
+
+    /**
+     * @param response a raw HTTP/1.1 response, or null
+     * @return the status code of the status line, or -1 if there is no valid status line
+     */
+    private static int getStatus(ByteBuffer response)
+    {
+        // "HTTP/1.1 200 OK"
+        if (response == null || response.remaining() < 12 || response.get(response.position() + 8) != ' ')
+            return -1;
+        int status = 0;
+        for (int i = 9; i < 12; i++)
+        {
+            byte digit = response.get(response.position() + i);
+            if (digit < '0' || digit > '9')
+                return -1;
+            status = status * 10 + digit - '0';
+        }
+        return status;
+    }
+
+    private static ByteBuffer newRequest(Kind kind) throws IOException
+    {
+        switch (kind)
+        {
+            case GET:
+                return toBuffer("GET /dump/warmup?a=1&b=2 HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Accept-Encoding: gzip\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n");
+            case CONTENT_LENGTH_POST:
+            {
+                String form = "name=warmup&value=" + "x".repeat(200);
+                return toBuffer("POST /dump/warmup HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Content-Type: application/x-www-form-urlencoded\r\n" +
+                    "Content-Length: " + form.length() + "\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n" +
+                    form);
+            }
+            case CHUNKED_POST:
+                return toBuffer(chunked(900));
+            case GZIP_POST:
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(bytes))
+                {
+                    gzip.write("x".repeat(900).getBytes(ISO_8859_1));
+                }
+                byte[] body = bytes.toByteArray();
+                ByteBuffer head = toBuffer("POST /stream/warmup HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Content-Type: application/octet-stream\r\n" +
+                    "Content-Encoding: gzip\r\n" +
+                    "Content-Length: " + body.length + "\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n");
+                ByteBuffer request = ByteBuffer.allocate(head.remaining() + body.length);
+                request.put(head).put(body).flip();
+                return request;
+            }
+            case OVER_LIMIT:
+                // Over the 1024 bytes limit of /stream, rejected part way through the body.
+                return toBuffer(chunked(2048));
+            default:
+                throw new IllegalArgumentException(kind.toString());
+        }
+    }
+
+    private static String chunked(int size)
+    {
+        StringBuilder request = new StringBuilder();
+        request.append("POST /stream/warmup HTTP/1.1\r\n")
+            .append("Host: localhost\r\n")
+            .append("Content-Type: application/octet-stream\r\n")
+            .append("Transfer-Encoding: chunked\r\n")
+            .append("Connection: close\r\n")
+            .append("\r\n");
+        for (int written = 0; written < size; written += 256)
+        {
+            int length = Math.min(256, size - written);
+            request.append(Integer.toHexString(length)).append("\r\n").append("x".repeat(length)).append("\r\n");
+        }
+        request.append("0\r\n\r\n");
+        return request.toString();
+    }
+
+    private static ByteBuffer toBuffer(String request)
+    {
+        return ByteBuffer.wrap(request.getBytes(ISO_8859_1));
+    }
+
+    private static class WarmUpConnector extends LocalConnector
+    {
+        WarmUpConnector(Server server)
+        {
+            super(server);
+        }
+    }
+
+    /**
+     * The latency of the warm-up requests.
+     */
+    public static class Report
+    {
+        private final int requests;
+        private final int failures;
+        private final long firstNanos;
+        private final long lastNanos;
+
+        private Report(int requests, int failures, long[] latencies)
+        {
+            this.requests = requests;
+            this.failures = failures;
+            int window = Math.min(WINDOW, latencies.length);
+            this.firstNanos = average(latencies, 0, window);
+            this.lastNanos = average(latencies, latencies.length - window, latencies.length);
+        }
+
+        private static long average(long[] latencies, int from, int to)
+        {
+            return to <= from ? 0 : Arrays.stream(latencies, from, to).sum() / (to - from);
+        }
+
+        public int getRequests()
+        {
+            return requests;
+        }
+
+        /**
+         * @return the number of requests without a response, or with an unexpected status
+         */
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * @return the average latency of the first warm-up requests, in nanoseconds
+         */
+        public long getFirstNanos()
+        {
+            return firstNanos;
+        }
+
+        /**
+         * @return the average latency of the last warm-up requests, in nanoseconds
+         */
+        public long getLastNanos()
+        {
+            return lastNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d requests, %d failures, first %d: %dus, last %d: %dus",
+                requests, failures, Math.min(WINDOW, requests), TimeUnit.NANOSECONDS.toMicros(firstNanos),
+                Math.min(WINDOW, requests), TimeUnit.NANOSECONDS.toMicros(lastNanos));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * Counters fed by the request and response size interceptors.
+ * <p>
+ * Add an instance as a bean on the {@link Server} for the interceptors to find it;
+ * without one, the interceptors count into a detached instance.
+ * </p>
+ */
+public class SizeLimitMetrics
+{
+    private static final SizeLimitMetrics DETACHED = new SizeLimitMetrics();
+
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder requestsRejected = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    private final LongAdder responseWireBytes = new LongAdder();
+    private final LongAdder responsesAborted = new LongAdder();
+
+    /**
+     * @param request the request
+     * @return the metrics of the server, or detached metrics for a {@link ServerWarmup} request
+     */
+    public static SizeLimitMetrics of(Request request)
+    {
+        SizeLimitMetrics metrics = ServerWarmup.getServerBean(request, SizeLimitMetrics.class);
+        return metrics == null ? DETACHED : metrics;
+    }
+
+    public void onRequestBytes(long bytes)
+    {
+        requestBytes.add(bytes);
+    }
+
+    public void onRequestRejected()
+    {
+        requestsRejected.increment();
+    }
+
+    public void onResponseBytes(long bytes)
+    {
+        responseBytes.add(bytes);
+    }
+
+    public void onResponseComplete()
+    {
+        responses.increment();
+    }
+
+    public void onResponseWireBytes(long bytes)
+    {
+        responseWireBytes.add(bytes);
+    }
+
+    public void onResponseAborted()
+    {
+        responsesAborted.increment();
+    }
+
+    public long getRequestBytes()
+    {
+        return requestBytes.sum();
+    }
+
+    public long getRequestsRejected()
+    {
+        return requestsRejected.sum();
+    }
+
+    public long getResponses()
+    {
+        return responses.sum();
+    }
+
+    /**
+     * @return the response bytes written by the application, before any compression
+     */
+    public long getResponseBytes()
+    {
+        return responseBytes.sum();
+    }
+
+    /**
+     * @return the response bytes handed to the connection, after any compression
+     */
+    public long getResponseWireBytes()
+    {
+        return responseWireBytes.sum();
+    }
+
+    public long getResponsesAborted()
+    {
+        return responsesAborted.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{requestBytes=%d,rejected=%d,responses=%d,responseBytes=%d,wireBytes=%d,aborted=%d}",
+            getClass().getSimpleName(), hashCode(),
+            getRequestBytes(), getRequestsRejected(), getResponses(), getResponseBytes(), getResponseWireBytes(), getResponsesAborted());
+    }
+}
@@ -0,0 +1,244 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jetty.http.BadMessageException;
+
+/**
+ * Streaming parser of {@code application/x-www-form-urlencoded} content.
+ * <p>
+ * The limits on the number of keys, the key and value lengths and the total size
+ * are enforced while the content is read, so a hostile form fails as soon as a limit
+ * is crossed rather than after the whole body has been buffered.
+ * Keys are decoded as they are parsed (they are bounded by the key length limit),
+ * while values are kept in their encoded form and are only decoded when requested.
+ * </p>
+ */
+public class StreamingFormParser
+{
+    private final int maxKeys;
+    private final int maxKeyLength;
+    private final int maxValueLength;
+    private final int maxFormSize;
+
+    public StreamingFormParser(int maxKeys, int maxKeyLength, int maxValueLength, int maxFormSize)
+    {
+        this.maxKeys = maxKeys;
+        this.maxKeyLength = maxKeyLength;
+        this.maxValueLength = maxValueLength;
+        this.maxFormSize = maxFormSize;
+    }
+
+    public Parameters parse(InputStream in, Charset charset) throws IOException
+    {
+        Parameters parameters = new Parameters(charset);
+        byte[] chunk = new byte[512];
+        byte[] key = new byte[Math.min(maxKeyLength, 256)];
+        int keyLength = 0;
+        boolean inValue = false;
+        int valueStart = 0;
+        long formSize = 0;
+
+        int read;
+        while ((read = in.read(chunk)) >= 0)
+        {
+            formSize += read;
+            if (formSize > maxFormSize)
+                throw new FormLimitExceededException("Exceeded max form size of " + maxFormSize);
+
+            for (int i = 0; i < read; i++)
+            {
+                byte b = chunk[i];
+                if (b == '&')
+                {
+                    if (inValue || keyLength > 0)
+                        parameters.add(decodeKey(key, keyLength, charset), valueStart, inValue ? parameters.size - valueStart : 0, maxKeys);
+                    keyLength = 0;
+                    inValue = false;
+                }
+                else if (inValue)
+                {
+                    if (parameters.size - valueStart >= maxValueLength)
+                        throw new FormLimitExceededException("Exceeded max form value length of " + maxValueLength);
+                    parameters.append(b);
+                }
+                else if (b == '=')
+                {
+                    inValue = true;
+                    valueStart = parameters.size;
+                }
+                else
+                {
+                    if (keyLength >= maxKeyLength)
+                        throw new FormLimitExceededException("Exceeded max form key length of " + maxKeyLength);
+                    if (keyLength == key.length)
+                        key = Arrays.copyOf(key, Math.min(maxKeyLength, key.length * 2));
+                    key[keyLength++] = b;
+                }
+            }
+        }
+        if (inValue || keyLength > 0)
+            parameters.add(decodeKey(key, keyLength, charset), valueStart, inValue ? parameters.size - valueStart : 0, maxKeys);
+        return parameters;
+    }
+
+    private static String decodeKey(byte[] bytes, int length, Charset charset)
+    {
+        return decode(bytes, 0, length, charset);
+    }
+
+    static String decode(byte[] bytes, int offset, int length, Charset charset)
+    {
+        int end = offset + length;
+        int i = offset;
+        while (i < end && bytes[i] != '%' && bytes[i] != '+')
+        {
+            i++;
+        }
+        if (i == end)
+            return new String(bytes, offset, length, charset);
+
+        byte[] decoded = new byte[length];
+        int decodedLength = i - offset;
+        System.arraycopy(bytes, offset, decoded, 0, decodedLength);
+        while (i < end)
+        {
+            byte b = bytes[i++];
+            if (b == '+')
+            {
+                decoded[decodedLength++] = ' ';
+            }
+            else if (b == '%')
+            {
+                if (i + 2 > end)
+                    throw new BadMessageException("Invalid form encoding");
+                int hi = Character.digit(bytes[i++], 16);
+                int lo = Character.digit(bytes[i++], 16);
+                if (hi < 0 || lo < 0)
+                    throw new BadMessageException("Invalid form encoding");
+                decoded[decodedLength++] = (byte)((hi << 4) + lo);
+            }
+            else
+            {
+                decoded[decodedLength++] = b;
+            }
+        }
+        return new String(decoded, 0, decodedLength, charset);
+    }
+
+    /**
+     * The parsed form: decoded keys with values that are decoded on first access.
+     */
+    public static class Parameters
+    {
+        private final Map<String, Parameter> parameters = new LinkedHashMap<>();
+        private final Charset charset;
+        private byte[] values = new byte[256];
+        private int size;
+
+        private Parameters(Charset charset)
+        {
+            this.charset = charset;
+        }
+
+        private void append(byte b)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = b;
+        }
+
+        private void add(String key, int offset, int length, int maxKeys)
+        {
+            // String keys collide into balanced trees within HashMap buckets,
+            // and the number of keys is bounded, so colliding keys can't degrade lookups.
+            Parameter parameter = parameters.get(key);
+            if (parameter == null)
+            {
+                if (parameters.size() >= maxKeys)
+                    throw new FormLimitExceededException("Exceeded max form keys of " + maxKeys);
+                parameter = new Parameter();
+                parameters.put(key, parameter);
+            }
+            parameter.add(offset, length);
+        }
+
+        public Set<String> getNames()
+        {
+            return Collections.unmodifiableSet(parameters.keySet());
+        }
+
+        public String getValue(String name)
+        {
+            Parameter parameter = parameters.get(name);
+            return parameter == null ? null : parameter.getValue(this, 0);
+        }
+
+        public String[] getValues(String name)
+        {
+            Parameter parameter = parameters.get(name);
+            if (parameter == null)
+                return null;
+            String[] values = new String[parameter.count];
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = parameter.getValue(this, i);
+            }
+            return values;
+        }
+    }
+
+    private static class Parameter
+    {
+        private int[] ranges = new int[2];
+        private String[] decoded;
+        private int count;
+
+        void add(int offset, int length)
+        {
+            if (count * 2 == ranges.length)
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[count * 2] = offset;
+            ranges[count * 2 + 1] = length;
+            count++;
+        }
+
+        String getValue(Parameters parameters, int index)
+        {
+            if (decoded == null)
+                decoded = new String[count];
+            String value = decoded[index];
+            if (value == null)
+            {
+                value = decode(parameters.values, ranges[index * 2], ranges[index * 2 + 1], parameters.charset);
+                decoded[index] = value;
+            }
+            return value;
+        }
+    }
+}
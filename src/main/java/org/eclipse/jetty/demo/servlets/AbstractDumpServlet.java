@@ -19,14 +19,18 @@
 package org.eclipse.jetty.demo.servlets;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.eclipse.jetty.server.Request;
+
 public abstract class AbstractDumpServlet extends HttpServlet
 {
     @Override
@@ -36,49 +40,70 @@ public abstract class AbstractDumpServlet extends HttpServlet
         response.setCharacterEncoding("utf-8");
         response.setStatus(HttpServletResponse.SC_OK);
 
-        PrintWriter out = response.getWriter();
-
-        out.printf("%s:%n", this.getClass().getSimpleName());
-        out.println("method=" + request.getMethod());
-        out.println("dispatcherType=" + request.getDispatcherType());
-        out.println("requestURI=" + request.getRequestURI());
-        out.println("requestURL=" + request.getRequestURL().toString());
-        out.println("contextPath=" + request.getContextPath());
-        out.println("servletPath=" + request.getServletPath());
-        out.println("pathInfo=" + request.getPathInfo());
-        out.printf("remote=%s:%d%n", request.getRemoteAddr(), request.getRemotePort());
-        HttpSession session = request.getSession(false);
-        if (session == null)
-        {
-            out.println("session=<null>");
-        }
-        else
+        // Encode straight into a pooled buffer, then write it once with a known Content-Length.
+        ResponseBuffer out = new ResponseBuffer(Request.getBaseRequest(request).getHttpChannel().getByteBufferPool());
+        try
         {
-            out.println("session=" + session.getId());
-        }
+            out.append(this.getClass().getSimpleName()).append(':').newLine();
+            out.append("method=").append(request.getMethod()).newLine();
+            out.append("dispatcherType=").append(request.getDispatcherType()).newLine();
+            out.append("requestURI=").append(request.getRequestURI()).newLine();
+            out.append("requestURL=").append(request.getRequestURL()).newLine();
+            out.append("contextPath=").append(request.getContextPath()).newLine();
+            out.append("servletPath=").append(request.getServletPath()).newLine();
+            out.append("pathInfo=").append(request.getPathInfo()).newLine();
+            out.append("remote=").append(request.getRemoteAddr()).append(':').append(request.getRemotePort()).newLine();
+            HttpSession session = request.getSession(false);
+            if (session == null)
+            {
+                out.append("session=<null>").newLine();
+            }
+            else
+            {
+                out.append("session=").append(session.getId()).newLine();
+            }
+
+            for (Enumeration<String> names = request.getHeaderNames(); names.hasMoreElements(); )
+            {
+                String name = names.nextElement();
+                out.append("request.header[").append(name).append("]=").append(request.getHeader(name)).newLine();
+            }
+
+            ServletContext servletContext = getServletContext();
 
-        Collections.list(request.getHeaderNames())
-            .forEach((name) ->
-                out.printf("request.header[%s]=%s%n", name, request.getHeader(name)));
+            for (String name : sorted(request.getParameterNames()))
+            {
+                out.append("request.parameter[").append(name).append("]=").append(request.getParameter(name)).newLine();
+            }
 
-        ServletContext servletContext = getServletContext();
+            for (String name : sorted(request.getAttributeNames()))
+            {
+                out.append("request.attribute[").append(name).append("]=").append(request.getAttribute(name)).newLine();
+            }
 
-        Collections.list(request.getParameterNames())
-            .stream()
-            .sorted()
-            .forEach((name) ->
-                out.printf("request.parameter[%s]=%s%n", name, request.getParameter(name)));
+            for (String name : sorted(servletContext.getAttributeNames()))
+            {
+                out.append("servletContext.attribute[").append(name).append("]=").append(servletContext.getAttribute(name)).newLine();
+            }
 
-        Collections.list(request.getAttributeNames())
-            .stream()
-            .sorted()
-            .forEach((name) ->
-                out.println("request.attribute[" + name + "]=" + request.getAttribute(name)));
+            out.writeTo(response);
+        }
+        finally
+        {
+            out.release();
+        }
+    }
 
-        Collections.list(servletContext.getAttributeNames())
-            .stream()
-            .sorted()
-            .forEach((name) ->
-                out.println("servletContext.attribute[" + name + "]=" + servletContext.getAttribute(name)));
+    private static List<String> sorted(Enumeration<String> names)
+    {
+        if (!names.hasMoreElements())
+            return Collections.emptyList();
+        List<String> list = new ArrayList<>();
+        while (names.hasMoreElements())
+        {
+            list.add(names.nextElement());
+        }
+        Collections.sort(list);
+        return list;
     }
 }
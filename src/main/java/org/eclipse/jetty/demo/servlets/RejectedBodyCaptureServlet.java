@@ -0,0 +1,70 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo.servlets;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.demo.RejectedBodyCapture;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Dumps the captured rejected request bodies of the {@link RejectedBodyCapture} server bean.
+ * <p>
+ * This is an admin endpoint: the captures contain what clients sent, so it only answers
+ * clients connecting from a loopback address. Map it behind authentication to open it further.
+ * </p>
+ */
+public class RejectedBodyCaptureServlet extends HttpServlet
+{
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        Request baseRequest = Request.getBaseRequest(request);
+        InetSocketAddress remote = baseRequest.getRemoteInetSocketAddress();
+        if (remote == null || remote.getAddress() == null || !remote.getAddress().isLoopbackAddress())
+        {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        RejectedBodyCapture capture = RejectedBodyCapture.of(baseRequest);
+        if (capture == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Rejected body capture is not enabled");
+            return;
+        }
+
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("utf-8");
+        ResponseBuffer out = new ResponseBuffer(baseRequest.getHttpChannel().getByteBufferPool());
+        try
+        {
+            capture.dump(out);
+            out.writeTo(response);
+        }
+        finally
+        {
+            out.release();
+        }
+    }
+}
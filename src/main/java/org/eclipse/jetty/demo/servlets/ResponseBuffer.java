@@ -0,0 +1,178 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo.servlets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * UTF-8 text accumulated directly into a pooled {@link ByteBuffer}.
+ * <p>
+ * Strings and numbers are encoded in place, without intermediate
+ * formatting objects, and the whole content is written at once
+ * with a known {@code Content-Length}.
+ * A buffer must be {@link #release() released} once written.
+ * </p>
+ */
+public class ResponseBuffer
+{
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final ByteBufferPool pool;
+    private ByteBuffer buffer;
+
+    public ResponseBuffer(ByteBufferPool pool)
+    {
+        this.pool = pool;
+        this.buffer = pool.acquire(INITIAL_CAPACITY, false);
+        this.buffer.clear();
+    }
+
+    private void ensureSpace(int needed)
+    {
+        if (buffer.remaining() >= needed)
+            return;
+        ByteBuffer larger = pool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + needed), false);
+        larger.clear();
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+        buffer = larger;
+    }
+
+    public ResponseBuffer append(char c)
+    {
+        if (Character.isSurrogate(c))
+        {
+            // Half of a pair can't be encoded on its own.
+            ensureSpace(1);
+            buffer.put((byte)'?');
+        }
+        else if (c < 0x80)
+        {
+            ensureSpace(1);
+            buffer.put((byte)c);
+        }
+        else if (c < 0x800)
+        {
+            ensureSpace(2);
+            buffer.put((byte)(0xC0 | (c >> 6)));
+            buffer.put((byte)(0x80 | (c & 0x3F)));
+        }
+        else
+        {
+            ensureSpace(3);
+            buffer.put((byte)(0xE0 | (c >> 12)));
+            buffer.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte)(0x80 | (c & 0x3F)));
+        }
+        return this;
+    }
+
+    public ResponseBuffer append(CharSequence text)
+    {
+        if (text == null)
+            return append("null");
+
+        int length = text.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ensureSpace(4);
+                buffer.put((byte)(0xF0 | (codePoint >> 18)));
+                buffer.put((byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (codePoint & 0x3F)));
+            }
+            else
+            {
+                append(c);
+            }
+        }
+        return this;
+    }
+
+    public ResponseBuffer append(Object value)
+    {
+        return append(value == null ? null : value.toString());
+    }
+
+    public ResponseBuffer append(long value)
+    {
+        if (value == Long.MIN_VALUE)
+            return append("-9223372036854775808");
+
+        ensureSpace(20);
+        if (value < 0)
+        {
+            buffer.put((byte)'-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10)
+        {
+            divisor *= 10;
+        }
+        while (divisor > 0)
+        {
+            buffer.put((byte)('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+        return this;
+    }
+
+    public ResponseBuffer newLine()
+    {
+        return append('\n');
+    }
+
+    /**
+     * Write the accumulated content as the complete response body.
+     *
+     * @param response the response to write to
+     * @throws IOException if the write fails
+     */
+    public void writeTo(HttpServletResponse response) throws IOException
+    {
+        buffer.flip();
+        response.setContentLength(buffer.remaining());
+        ServletOutputStream out = response.getOutputStream();
+        if (out instanceof HttpOutput)
+            ((HttpOutput)out).write(buffer);
+        else
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    public void release()
+    {
+        if (buffer != null)
+        {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
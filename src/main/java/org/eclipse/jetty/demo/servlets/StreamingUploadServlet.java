@@ -0,0 +1,96 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo.servlets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.demo.MaxRequestSizeExceededException;
+import org.eclipse.jetty.demo.RequestBodyPublisher;
+
+/**
+ * Counts the bytes of a request body consumed through a {@link RequestBodyPublisher},
+ * one buffer of demand at a time, without blocking a thread.
+ */
+public class StreamingUploadServlet extends HttpServlet
+{
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        AsyncContext asyncContext = request.startAsync();
+        new RequestBodyPublisher(asyncContext).subscribe(new Flow.Subscriber<>()
+        {
+            private Flow.Subscription subscription;
+            private long received;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item)
+            {
+                received += item.remaining();
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable failure)
+            {
+                HttpServletResponse httpResponse = (HttpServletResponse)asyncContext.getResponse();
+                int status = failure instanceof MaxRequestSizeExceededException
+                    ? HttpServletResponse.SC_BAD_REQUEST : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+                try
+                {
+                    httpResponse.sendError(status, failure.getMessage());
+                }
+                catch (IOException ignored)
+                {
+                    // the response can no longer be written
+                }
+                asyncContext.complete();
+            }
+
+            @Override
+            public void onComplete()
+            {
+                HttpServletResponse httpResponse = (HttpServletResponse)asyncContext.getResponse();
+                httpResponse.setContentType("text/plain");
+                httpResponse.setCharacterEncoding("utf-8");
+                try
+                {
+                    httpResponse.getWriter().println("received=" + received);
+                }
+                catch (IOException ignored)
+                {
+                    // the response can no longer be written
+                }
+                asyncContext.complete();
+            }
+        });
+    }
+}
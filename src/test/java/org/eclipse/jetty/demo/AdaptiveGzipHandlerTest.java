@@ -0,0 +1,204 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+public class AdaptiveGzipHandlerTest
+{
+    private static final String TEXT = newText();
+    // The gzip header and trailer around the deflated content.
+    private static final int GZIP_OVERHEAD = 10 + 8;
+
+    private Server server;
+    private HttpClient client;
+    private volatile double cpuLoad;
+    private AdaptiveGzipHandler gzipHandler;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = new Server();
+        server.addConnector(new ServerConnector(server));
+        gzipHandler = new AdaptiveGzipHandler()
+        {
+            @Override
+            protected double getCpuLoad()
+            {
+                return cpuLoad;
+            }
+        };
+        gzipHandler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                response.setContentType("text/plain");
+                response.getOutputStream().write(TEXT.getBytes(UTF_8));
+            }
+        });
+        server.setHandler(gzipHandler);
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+        // Keep the compressed content, to measure how it was compressed.
+        client.getContentDecoderFactories().clear();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    private static String newText()
+    {
+        // Compresses noticeably better with the best level than with the fastest level.
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+        {
+            text.append("line=").append(i).append(" value=").append(i * i % 977).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static int deflatedSize(int level)
+    {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setInput(TEXT.getBytes(UTF_8));
+        deflater.finish();
+        byte[] output = new byte[TEXT.length()];
+        int size = 0;
+        while (!deflater.finished())
+        {
+            size += deflater.deflate(output);
+        }
+        deflater.end();
+        return size;
+    }
+
+    private ContentResponse get() throws Exception
+    {
+        return client.newRequest(server.getURI().resolve("/text"))
+            .headers(headers -> headers.put(HttpHeader.ACCEPT_ENCODING, "gzip"))
+            .send();
+    }
+
+    private static String decode(ContentResponse response) throws IOException
+    {
+        if (!"gzip".equals(response.getHeaders().get(HttpHeader.CONTENT_ENCODING)))
+            return response.getContentAsString();
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(response.getContent())))
+        {
+            return new String(input.readAllBytes(), UTF_8);
+        }
+    }
+
+    /**
+     * The deflater is released, and its counters collected, once the response is complete,
+     * which may be after the client got the response.
+     */
+    private void awaitCollected() throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((gzipHandler.getCompressionRatio() == 0 || gzipHandler.getCompressionCpuNanos() == 0) && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat("ratio", gzipHandler.getCompressionRatio(), greaterThan(0.0));
+        assertThat("cpu", gzipHandler.getCompressionCpuNanos(), greaterThan(0L));
+    }
+
+    private static void assertDeflatedWithLevel(ContentResponse response, int level, int otherLevel)
+    {
+        // The content is deflated in chunks, so allow for some overhead over a one shot deflate.
+        int deflated = response.getContent().length - GZIP_OVERHEAD;
+        int expected = deflatedSize(level);
+        int other = deflatedSize(otherLevel);
+        assertThat("levels differ", Math.abs(expected - other), greaterThan(expected / 10));
+        assertThat("deflated size", (double)Math.abs(deflated - expected), lessThan(expected * 0.01));
+    }
+
+    @Test
+    public void testCompressedUnderLowLoad() throws Exception
+    {
+        cpuLoad = 0.1;
+        gzipHandler.setCompressionLevel(Deflater.BEST_COMPRESSION);
+        ContentResponse response = get();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("response.content", decode(response), is(TEXT));
+        assertThat("compressed", gzipHandler.getCompressed(), is(1L));
+        assertDeflatedWithLevel(response, Deflater.BEST_COMPRESSION, Deflater.BEST_SPEED);
+
+        awaitCollected();
+        assertThat("ratio", gzipHandler.getCompressionRatio(), greaterThan(4.0));
+    }
+
+    @Test
+    public void testFastestLevelUnderModerateLoad() throws Exception
+    {
+        cpuLoad = 0.7;
+        gzipHandler.setCompressionLevel(Deflater.BEST_COMPRESSION);
+        ContentResponse response = get();
+        assertThat("response.content", decode(response), is(TEXT));
+        assertThat("compressed", gzipHandler.getCompressed(), is(1L));
+        assertDeflatedWithLevel(response, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION);
+        awaitCollected();
+    }
+
+    @Test
+    public void testSkippedUnderHighLoad() throws Exception
+    {
+        cpuLoad = 0.95;
+        ContentResponse response = get();
+        assertThat("response.encoding", response.getHeaders().get(HttpHeader.CONTENT_ENCODING), nullValue());
+        assertThat("response.content", response.getContentAsString(), is(TEXT));
+        assertThat("compressed", gzipHandler.getCompressed(), is(0L));
+        assertThat("skipped", gzipHandler.getSkipped(), is(1L));
+    }
+}
@@ -0,0 +1,166 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.server.HttpInput;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.component.Destroyable;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class CompositeInputInterceptorTest
+{
+    private static class RecordingCheck implements CompositeInputInterceptor.Check
+    {
+        private final List<String> events;
+        private final String name;
+
+        RecordingCheck(List<String> events, String name)
+        {
+            this.events = events;
+            this.name = name;
+        }
+
+        @Override
+        public void onContent(ByteBuffer content, long readBytes)
+        {
+            events.add(name + ":" + content.remaining() + "/" + readBytes);
+        }
+
+        @Override
+        public void destroy()
+        {
+            events.add(name + ":destroyed");
+        }
+    }
+
+    private static class OtherCheck extends RecordingCheck
+    {
+        OtherCheck(List<String> events)
+        {
+            super(events, "other");
+        }
+    }
+
+    @Test
+    public void testChecksRunInOnePass()
+    {
+        List<String> events = new ArrayList<>();
+        CompositeInputInterceptor composite = new CompositeInputInterceptor(null);
+        composite.addCheck(RecordingCheck.class, () -> new RecordingCheck(events, "first"));
+        composite.addCheck(OtherCheck.class, () -> new OtherCheck(events));
+
+        HttpInput.Content content = new HttpInput.Content(BufferUtil.toBuffer("hello"));
+        assertThat("same content", composite.readFrom(content), sameInstance(content));
+        composite.readFrom(new HttpInput.Content(BufferUtil.toBuffer("world!")));
+        composite.readFrom(new HttpInput.EofContent());
+        composite.destroy();
+
+        assertThat("events", events, contains(
+            "first:5/5", "other:5/5",
+            "first:6/11", "other:6/11",
+            "first:destroyed", "other:destroyed"));
+        assertThat("readBytes", composite.getReadBytes(), is(11L));
+        assertThat("content not consumed", content.remaining(), is(5));
+    }
+
+    @Test
+    public void testCheckInstalledOnce()
+    {
+        AtomicInteger created = new AtomicInteger();
+        List<String> events = new ArrayList<>();
+        CompositeInputInterceptor composite = new CompositeInputInterceptor(null);
+        assertThat("no check", composite.getCheck(OtherCheck.class), nullValue());
+
+        OtherCheck check = composite.addCheck(OtherCheck.class, () ->
+        {
+            created.incrementAndGet();
+            return new OtherCheck(events);
+        });
+        OtherCheck again = composite.addCheck(OtherCheck.class, () ->
+        {
+            created.incrementAndGet();
+            return new OtherCheck(events);
+        });
+
+        assertThat("same check", again, sameInstance(check));
+        assertThat("created once", created.get(), is(1));
+        composite.readFrom(new HttpInput.Content(BufferUtil.toBuffer("x")));
+        assertThat("events", events, contains("other:1/1"));
+    }
+
+    @Test
+    public void testSubclassCheckDoesNotStandInForItsSuperType()
+    {
+        List<String> events = new ArrayList<>();
+        CompositeInputInterceptor composite = new CompositeInputInterceptor(null);
+        composite.addCheck(OtherCheck.class, () -> new OtherCheck(events));
+        assertThat("no check", composite.getCheck(RecordingCheck.class), nullValue());
+
+        RecordingCheck check = composite.addCheck(RecordingCheck.class, () -> new RecordingCheck(events, "first"));
+        assertThat("exact type", check.getClass(), sameInstance(RecordingCheck.class));
+        composite.readFrom(new HttpInput.Content(BufferUtil.toBuffer("x")));
+        assertThat("events", events, contains("other:1/1", "first:1/1"));
+    }
+
+    @Test
+    public void testPreviousInterceptorRunsFirst()
+    {
+        List<String> events = new ArrayList<>();
+        AtomicInteger destroyed = new AtomicInteger();
+        class Previous implements HttpInput.Interceptor, Destroyable
+        {
+            @Override
+            public HttpInput.Content readFrom(HttpInput.Content content)
+            {
+                // Transforms the content, or holds it back when it is too short.
+                if (content.remaining() < 3)
+                    return null;
+                ByteBuffer buffer = content.getByteBuffer();
+                buffer.position(buffer.limit());
+                return new HttpInput.Content(BufferUtil.toBuffer("transformed"));
+            }
+
+            @Override
+            public void destroy()
+            {
+                destroyed.incrementAndGet();
+            }
+        }
+        CompositeInputInterceptor composite = new CompositeInputInterceptor(new Previous());
+        composite.addCheck(RecordingCheck.class, () -> new RecordingCheck(events, "check"));
+
+        assertThat("held back", composite.readFrom(new HttpInput.Content(BufferUtil.toBuffer("ab"))), nullValue());
+        assertThat("transformed", BufferUtil.toString(composite.readFrom(new HttpInput.Content(BufferUtil.toBuffer("abcd"))).getByteBuffer()), is("transformed"));
+        composite.destroy();
+
+        assertThat("events", events, contains("check:11/11", "check:destroyed"));
+        assertThat("previous destroyed", destroyed.get(), is(1));
+    }
+}
@@ -0,0 +1,155 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrentUploadLimitTest
+{
+    private Server server;
+    private HttpClient client;
+    private ConcurrentUploadLimitHandler uploadLimitHandler;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0);
+        uploadLimitHandler = server.getChildHandlerByClass(ConcurrentUploadLimitHandler.class);
+        uploadLimitHandler.setMaxConcurrentUploads(1);
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    private ContentResponse upload(String apiKey) throws Exception
+    {
+        Request request = client.POST(server.getURI().resolve("/stream/small"))
+            .content(new BytesContentProvider(new byte[100]), "application/octet-stream");
+        if (apiKey != null)
+            request.header("X-API-Key", apiKey);
+        return request.send();
+    }
+
+    private void awaitClientCount(int count) throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (uploadLimitHandler.getClientCount() != count && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat("client count", uploadLimitHandler.getClientCount(), is(count));
+    }
+
+    @Test
+    public void testConcurrentUploadRejected() throws Exception
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/slow"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener listener = new FutureResponseListener(request);
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(listener);
+            out.write(new byte[100]);
+            out.flush();
+
+            // Wait for the slow upload to take its slot.
+            awaitClientCount(1);
+
+            assertThat("same client", upload(null).getStatus(), is(HttpStatus.TOO_MANY_REQUESTS_429));
+            // Without a validator, a made up API key doesn't get its own allowance.
+            assertThat("unvalidated key", upload("other").getStatus(), is(HttpStatus.TOO_MANY_REQUESTS_429));
+        }
+
+        ContentResponse response = listener.get(5, TimeUnit.SECONDS);
+        assertThat("slow.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("slow.content", response.getContentAsString(), containsString("received=100"));
+
+        // The slot is released when the request completes, which may be after the client got the response.
+        awaitClientCount(0);
+        assertThat("slot released", upload(null).getStatus(), is(HttpStatus.OK_200));
+        awaitClientCount(0);
+    }
+
+    @Test
+    public void testValidApiKeyIsSeparateClient() throws Exception
+    {
+        uploadLimitHandler.setApiKeyValidator("genuine"::equals);
+
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/slow"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener listener = new FutureResponseListener(request);
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(listener);
+            out.write(new byte[100]);
+            out.flush();
+
+            awaitClientCount(1);
+
+            assertThat("invalid key", upload("forged").getStatus(), is(HttpStatus.TOO_MANY_REQUESTS_429));
+            assertThat("valid key", upload("genuine").getStatus(), is(HttpStatus.OK_200));
+        }
+
+        ContentResponse response = listener.get(5, TimeUnit.SECONDS);
+        assertThat("slow.status", response.getStatus(), is(HttpStatus.OK_200));
+        awaitClientCount(0);
+    }
+
+    @Test
+    public void testRejectedUploadReleasesSlot() throws Exception
+    {
+        ContentResponse response = client.POST(server.getURI().resolve("/stream/large"))
+            .content(new BytesContentProvider(new byte[4096]), "application/octet-stream")
+            .send();
+        assertThat("large.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+
+        // The slot is released when the request completes, which may be after the client got the response.
+        awaitClientCount(0);
+        assertThat("slot released", upload(null).getStatus(), is(HttpStatus.OK_200));
+        awaitClientCount(0);
+    }
+}
@@ -0,0 +1,148 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+
+package org.eclipse.jetty.demo;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ContentTypeLimitsTest
+{
+    private static final String MULTIPART_XYZ = "multipart/form-data; boundary=xyz";
+
+    private static ByteBuffer bytes(String content)
+    {
+        return ByteBuffer.wrap(content.getBytes(UTF_8));
+    }
+
+    @Test
+    public void testSniffJson()
+    {
+        assertThat("object", ContentTypeLimits.sniff(bytes("{\"name\":\"foo\"}"), null), is(ContentTypeLimits.JSON));
+        assertThat("array", ContentTypeLimits.sniff(bytes("[1,2,3]"), null), is(ContentTypeLimits.JSON));
+        assertThat("whitespace", ContentTypeLimits.sniff(bytes(" \r\n\t{}"), null), is(ContentTypeLimits.JSON));
+        assertThat("byte order mark", ContentTypeLimits.sniff(bytes("\uFEFF{\"name\":\"foo\"}"), null), is(ContentTypeLimits.JSON));
+        assertThat("byte order mark and whitespace", ContentTypeLimits.sniff(bytes("\uFEFF\n[]"), ContentTypeLimits.JSON), is(ContentTypeLimits.JSON));
+    }
+
+    @Test
+    public void testSniffForm()
+    {
+        assertThat("form", ContentTypeLimits.sniff(bytes("name=foo&value=a+b%20c"), null), is(ContentTypeLimits.FORM));
+        assertThat("no equals", ContentTypeLimits.sniff(bytes("namefoo"), null), is(ContentTypeLimits.BINARY));
+    }
+
+    @Test
+    public void testSniffBinary()
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        assertThat("png", ContentTypeLimits.sniff(buffer, null), is(ContentTypeLimits.BINARY));
+        assertThat("empty", ContentTypeLimits.sniff(ByteBuffer.allocate(0), null), is(ContentTypeLimits.BINARY));
+        assertThat("text", ContentTypeLimits.sniff(bytes("name = foo"), null), is(ContentTypeLimits.BINARY));
+    }
+
+    @Test
+    public void testSniffMultipart()
+    {
+        assertThat("declared boundary", ContentTypeLimits.sniff(bytes("--xyz\r\nContent-Disposition: form-data"), MULTIPART_XYZ), is(ContentTypeLimits.MULTIPART));
+        assertThat("quoted boundary", ContentTypeLimits.sniff(bytes("--x y\r\n"), "multipart/form-data; boundary=\"x y\""), is(ContentTypeLimits.MULTIPART));
+        assertThat("parameter case", ContentTypeLimits.sniff(bytes("--xyz\r\n"), "Multipart/Form-Data; Boundary=xyz"), is(ContentTypeLimits.MULTIPART));
+        assertThat("other boundary", ContentTypeLimits.sniff(bytes("--abc\r\n"), MULTIPART_XYZ), is(ContentTypeLimits.BINARY));
+        assertThat("dashes only", ContentTypeLimits.sniff(bytes("--xxxxxxx"), MULTIPART_XYZ), is(ContentTypeLimits.BINARY));
+        assertThat("no boundary", ContentTypeLimits.sniff(bytes("--xyz\r\n"), ContentTypeLimits.MULTIPART), is(ContentTypeLimits.BINARY));
+        assertThat("not multipart", ContentTypeLimits.sniff(bytes("--xyz\r\n"), "text/plain; boundary=xyz"), is(ContentTypeLimits.BINARY));
+        assertThat("undeclared", ContentTypeLimits.sniff(bytes("--xyz\r\n"), null), is(ContentTypeLimits.BINARY));
+    }
+
+    @Test
+    public void testSniffLongBoundary()
+    {
+        // Longer than the sniffed bytes, the whole delimiter is still compared.
+        String boundary = "b".repeat(70);
+        String contentType = "multipart/form-data; boundary=" + boundary;
+        assertThat("long boundary", ContentTypeLimits.sniff(bytes("--" + boundary + "\r\n"), contentType), is(ContentTypeLimits.MULTIPART));
+        assertThat("long other boundary", ContentTypeLimits.sniff(bytes("--" + "b".repeat(69) + "c\r\n"), contentType), is(ContentTypeLimits.BINARY));
+    }
+
+    @Test
+    public void testSniffShortFirstChunk()
+    {
+        assertThat("json", ContentTypeLimits.sniff(bytes("{"), null), is(ContentTypeLimits.JSON));
+        assertThat("partial byte order mark", ContentTypeLimits.sniff(ByteBuffer.wrap(new byte[]{(byte)0xEF, (byte)0xBB}), null), is(ContentTypeLimits.BINARY));
+        assertThat("form", ContentTypeLimits.sniff(bytes("a="), null), is(ContentTypeLimits.FORM));
+        // The delimiter is not complete, so the allowance of multipart is not granted.
+        assertThat("partial delimiter", ContentTypeLimits.sniff(bytes("--xy"), MULTIPART_XYZ), is(ContentTypeLimits.BINARY));
+        assertThat("dashes", ContentTypeLimits.sniff(bytes("--"), MULTIPART_XYZ), is(ContentTypeLimits.BINARY));
+    }
+
+    @Test
+    public void testSniffDoesNotConsume()
+    {
+        ByteBuffer buffer = bytes("xx--xyz\r\n");
+        buffer.position(2);
+        assertThat("from position", ContentTypeLimits.sniff(buffer, MULTIPART_XYZ), is(ContentTypeLimits.MULTIPART));
+        assertThat("position", buffer.position(), is(2));
+        assertThat("remaining", buffer.remaining(), is(7));
+    }
+
+    @Test
+    public void testLimits()
+    {
+        ContentTypeLimits limits = new ContentTypeLimits(1024);
+        limits.put(ContentTypeLimits.MULTIPART, 4096);
+        limits.put(ContentTypeLimits.JSON, 512);
+
+        assertThat("default", limits.getLimit(null), is(1024L));
+        assertThat("parameters", limits.getLimit(MULTIPART_XYZ), is(4096L));
+        assertThat("charset", limits.getLimit("Application/JSON; charset=utf-8"), is(512L));
+        assertThat("multipart", limits.getLimit(MULTIPART_XYZ, ContentTypeLimits.MULTIPART), is(4096L));
+        assertThat("mislabeled", limits.getLimit(MULTIPART_XYZ, ContentTypeLimits.FORM), is(1024L));
+        assertThat("stricter sniffed", limits.getLimit(MULTIPART_XYZ, ContentTypeLimits.JSON), is(512L));
+        assertThat("stricter declared", limits.getLimit(ContentTypeLimits.JSON, ContentTypeLimits.MULTIPART), is(512L));
+    }
+
+    @Test
+    public void testUserLimit()
+    {
+        ContentTypeLimits limits = new ContentTypeLimits(1024);
+        limits.put(ContentTypeLimits.MULTIPART, 4096);
+        limits.put(ContentTypeLimits.JSON, 512);
+
+        assertThat("same as default", limits.withUserLimit(1024), is(limits));
+
+        ContentTypeLimits raised = limits.withUserLimit(2048);
+        assertThat("raised default", raised.getLimit(null), is(2048L));
+        assertThat("raised smaller type", raised.getLimit(ContentTypeLimits.JSON), is(2048L));
+        assertThat("larger type kept", raised.getLimit(MULTIPART_XYZ), is(4096L));
+        assertThat("raised sniffed", raised.getLimit(MULTIPART_XYZ, ContentTypeLimits.FORM), is(2048L));
+        assertThat("configured default", raised.getDefaultLimit(), is(1024L));
+
+        ContentTypeLimits lowered = limits.withUserLimit(256);
+        assertThat("lowered default", lowered.getLimit(null), is(256L));
+        assertThat("lowered larger type", lowered.getLimit(MULTIPART_XYZ), is(256L));
+        assertThat("lowered smaller type", lowered.getLimit(ContentTypeLimits.JSON), is(256L));
+
+        assertThat("shared content type limits", limits.getLimit(MULTIPART_XYZ), is(4096L));
+    }
+}
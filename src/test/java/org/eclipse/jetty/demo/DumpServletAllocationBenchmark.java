@@ -0,0 +1,162 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.sun.management.ThreadMXBean;
+import org.eclipse.jetty.demo.servlets.DumpServlet;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+
+/**
+ * Measures the bytes allocated by the server per dump request,
+ * comparing the buffered {@link DumpServlet} with the original {@code printf} based implementation.
+ * <p>
+ * Run the {@code main} method with the test classpath, optionally passing the number of requests per round.
+ * Allocation is measured with {@link ThreadMXBean#getThreadAllocatedBytes(long)} over the server threads.
+ * </p>
+ */
+public class DumpServletAllocationBenchmark
+{
+    private static final String REQUEST = "GET %s?a=1&b=2&c=3 HTTP/1.1\r\n" +
+        "Host: localhost\r\n" +
+        "User-Agent: benchmark\r\n" +
+        "Accept: text/plain\r\n" +
+        "\r\n";
+
+    public static void main(String[] args) throws Exception
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(DumpServlet.class, "/dump/*");
+        context.addServlet(PrintfDumpServlet.class, "/printf/*");
+        server.setHandler(context);
+        server.start();
+        try
+        {
+            for (int round = 0; round < 3; round++)
+            {
+                report("printf", connector, "/printf/foo", iterations);
+                report("buffered", connector, "/dump/foo", iterations);
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    private static void report(String name, LocalConnector connector, String uri, int iterations) throws Exception
+    {
+        String request = String.format(REQUEST, uri);
+        ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+
+        long allocatedBefore = allocatedByOthers(threads, self);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            connector.getResponse(request);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedByOthers(threads, self) - allocatedBefore;
+
+        System.out.printf("%-8s %,10d bytes/request %,8d ns/request%n", name, allocated / iterations, elapsed / iterations);
+    }
+
+    private static long allocatedByOthers(ThreadMXBean threads, long self)
+    {
+        // Threads that died during the run are not accounted for; the server thread pool is stable here.
+        long total = 0;
+        for (long id : threads.getAllThreadIds())
+        {
+            if (id == self)
+                continue;
+            long allocated = threads.getThreadAllocatedBytes(id);
+            if (allocated > 0)
+                total += allocated;
+        }
+        return total;
+    }
+
+    /**
+     * The original {@code AbstractDumpServlet} implementation, kept as the benchmark baseline.
+     */
+    public static class PrintfDumpServlet extends HttpServlet
+    {
+        @Override
+        public void service(HttpServletRequest request, HttpServletResponse response) throws IOException
+        {
+            response.setContentType("text/plain");
+            response.setCharacterEncoding("utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+
+            PrintWriter out = response.getWriter();
+
+            out.printf("%s:%n", this.getClass().getSimpleName());
+            out.println("method=" + request.getMethod());
+            out.println("dispatcherType=" + request.getDispatcherType());
+            out.println("requestURI=" + request.getRequestURI());
+            out.println("requestURL=" + request.getRequestURL().toString());
+            out.println("contextPath=" + request.getContextPath());
+            out.println("servletPath=" + request.getServletPath());
+            out.println("pathInfo=" + request.getPathInfo());
+            out.printf("remote=%s:%d%n", request.getRemoteAddr(), request.getRemotePort());
+            out.println("session=<null>");
+
+            Collections.list(request.getHeaderNames())
+                .forEach((name) ->
+                    out.printf("request.header[%s]=%s%n", name, request.getHeader(name)));
+
+            ServletContext servletContext = getServletContext();
+
+            Collections.list(request.getParameterNames())
+                .stream()
+                .sorted()
+                .forEach((name) ->
+                    out.printf("request.parameter[%s]=%s%n", name, request.getParameter(name)));
+
+            Collections.list(request.getAttributeNames())
+                .stream()
+                .sorted()
+                .forEach((name) ->
+                    out.println("request.attribute[" + name + "]=" + request.getAttribute(name)));
+
+            Collections.list(servletContext.getAttributeNames())
+                .stream()
+                .sorted()
+                .forEach((name) ->
+                    out.println("servletContext.attribute[" + name + "]=" + servletContext.getAttribute(name)));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class Http2MaxRequestSizeTest
+{
+    private Server server;
+    private HttpClient client;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0, true);
+        server.start();
+
+        client = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()));
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    @Test
+    public void testRejectedStreamDoesNotAffectConnection() throws Exception
+    {
+        // Start a large upload that is rejected part way through its body.
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request large = client.POST(server.getURI().resolve("/stream/large"))
+            .content(content, "application/octet-stream");
+        CompletableFuture<Result> largeResult = new CompletableFuture<>();
+        large.send(largeResult::complete);
+        try (OutputStream out = content.getOutputStream())
+        {
+            byte[] chunk = new byte[1024];
+            for (int i = 0; i < 128; i++)
+            {
+                out.write(chunk);
+            }
+        }
+        catch (Exception ignored)
+        {
+            // The stream is reset once the body has been rejected.
+        }
+
+        ContentResponse small = client.POST(server.getURI().resolve("/stream/small"))
+            .content(new BytesContentProvider(new byte[900]), "application/octet-stream")
+            .send();
+
+        // The client may see the stream reset before the end of the error response,
+        // but the rejection has been sent, and only this stream is affected.
+        Result rejected = largeResult.get(5, TimeUnit.SECONDS);
+        assertThat("rejected.status", rejected.getResponse().getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        assertThat("small.status", small.getStatus(), is(HttpStatus.OK_200));
+        assertThat("small.content", small.getContentAsString(), containsString("received=900"));
+
+        ContentResponse after = client.POST(server.getURI().resolve("/stream/after"))
+            .content(new BytesContentProvider(new byte[900]), "application/octet-stream")
+            .send();
+        assertThat("after.status", after.getStatus(), is(HttpStatus.OK_200));
+
+        ServerConnector connector = server.getBean(ServerConnector.class);
+        assertThat("multiplexed connections", connector.getConnectedEndPoints().size(), is(1));
+    }
+
+    @Test
+    public void testDeclaredLengthRejected() throws Exception
+    {
+        ContentResponse response = client.POST(server.getURI().resolve("/stream/declared"))
+            .content(new BytesContentProvider(new byte[4096]), "application/octet-stream")
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        assertThat("response.content", response.getContentAsString(), containsString("Exceeded max request size"));
+    }
+}
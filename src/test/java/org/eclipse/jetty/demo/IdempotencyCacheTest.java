@@ -0,0 +1,155 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+
+package org.eclipse.jetty.demo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class IdempotencyCacheTest
+{
+    private static IdempotencyCache.CachedResponse newResponse(int bodySize)
+    {
+        return new IdempotencyCache.CachedResponse(200, List.of(), new byte[bodySize]);
+    }
+
+    @Test
+    public void testDuplicateWaitsForCompletion() throws Exception
+    {
+        IdempotencyCache cache = new IdempotencyCache(4096, 1024, 1, TimeUnit.HOURS);
+        assertThat("owner", cache.begin("a"), nullValue());
+
+        CompletableFuture<IdempotencyCache.CachedResponse> duplicate = cache.begin("a");
+        assertThat("duplicate", duplicate, notNullValue());
+        assertThat("in-flight", duplicate.isDone(), is(false));
+
+        IdempotencyCache.CachedResponse response = newResponse(10);
+        cache.complete("a", response);
+        assertThat("released", duplicate.get(), sameInstance(response));
+        assertThat("replayed", cache.begin("a").get(), sameInstance(response));
+    }
+
+    @Test
+    public void testAbandonReleasesDuplicatesWithNull() throws Exception
+    {
+        IdempotencyCache cache = new IdempotencyCache(4096, 1024, 1, TimeUnit.HOURS);
+        assertThat("owner", cache.begin("a"), nullValue());
+        CompletableFuture<IdempotencyCache.CachedResponse> duplicate = cache.begin("a");
+
+        cache.abandon("a");
+        assertThat("released", duplicate.get(), nullValue());
+        assertThat("entries", cache.getEntryCount(), is(0));
+        assertThat("size", cache.getCacheSize(), is(0L));
+        assertThat("new owner", cache.begin("a"), nullValue());
+    }
+
+    @Test
+    public void testAbandonAfterCompleteKeepsResponse() throws Exception
+    {
+        IdempotencyCache cache = new IdempotencyCache(4096, 1024, 1, TimeUnit.HOURS);
+        cache.begin("a");
+        IdempotencyCache.CachedResponse response = newResponse(10);
+        cache.complete("a", response);
+        cache.abandon("a");
+        assertThat("replayed", cache.begin("a").get(), sameInstance(response));
+    }
+
+    @Test
+    public void testExpiredResponseIsNotReplayed() throws Exception
+    {
+        IdempotencyCache cache = new IdempotencyCache(4096, 1024, 1, TimeUnit.MILLISECONDS);
+        cache.begin("a");
+        cache.complete("a", newResponse(10));
+        Thread.sleep(10);
+
+        assertThat("new owner", cache.begin("a"), nullValue());
+        assertThat("entries", cache.getEntryCount(), is(1));
+    }
+
+    @Test
+    public void testInFlightEntryDoesNotExpire() throws Exception
+    {
+        IdempotencyCache cache = new IdempotencyCache(4096, 1024, 1, TimeUnit.MILLISECONDS);
+        cache.begin("a");
+        Thread.sleep(10);
+
+        CompletableFuture<IdempotencyCache.CachedResponse> duplicate = cache.begin("a");
+        assertThat("still owned", duplicate, notNullValue());
+        assertThat("in-flight", duplicate.isDone(), is(false));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        // Room for two entries of 1000 bytes plus overhead, but not three.
+        IdempotencyCache cache = new IdempotencyCache(2500, 1024, 1, TimeUnit.HOURS);
+        cache.begin("a");
+        cache.complete("a", newResponse(1000));
+        cache.begin("b");
+        cache.complete("b", newResponse(1000));
+
+        // Touch "a", so that "b" is the least recently used.
+        assertThat("a replayed", cache.begin("a").isDone(), is(true));
+
+        cache.begin("c");
+        cache.complete("c", newResponse(1000));
+
+        assertThat("entries", cache.getEntryCount(), is(2));
+        assertThat("size bounded", cache.getCacheSize() <= 2500, is(true));
+        assertThat("a kept", cache.begin("a").isDone(), is(true));
+        assertThat("b evicted", cache.begin("b"), nullValue());
+    }
+
+    @Test
+    public void testInFlightEntryIsNotEvicted()
+    {
+        IdempotencyCache cache = new IdempotencyCache(1500, 1024, 1, TimeUnit.HOURS);
+        cache.begin("a");
+        cache.begin("b");
+        cache.complete("b", newResponse(1000));
+        cache.begin("c");
+        cache.complete("c", newResponse(1000));
+
+        assertThat("a in-flight", cache.begin("a").isDone(), is(false));
+        assertThat("b evicted", cache.begin("b"), nullValue());
+    }
+
+    @Test
+    public void testOversizedResponseIsNotStored() throws Exception
+    {
+        IdempotencyCache cache = new IdempotencyCache(4096, 1024, 1, TimeUnit.HOURS);
+        cache.begin("a");
+        CompletableFuture<IdempotencyCache.CachedResponse> duplicate = cache.begin("a");
+        IdempotencyCache.CachedResponse response = newResponse(2000);
+        cache.complete("a", response);
+
+        assertThat("duplicate released", duplicate.get(), sameInstance(response));
+        assertThat("entries", cache.getEntryCount(), is(0));
+        assertThat("size", cache.getCacheSize(), is(0L));
+    }
+}
@@ -0,0 +1,321 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.FormContentProvider;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdempotencyTest
+{
+    private static final String X_SERVED_BY = "X-Served-By";
+    private final AtomicInteger dispatched = new AtomicInteger();
+    private Server server;
+    private HttpClient client;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0);
+        // A handler outside of the filter, that adds a header to every response.
+        HandlerWrapper servedBy = new HandlerWrapper()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                response.addHeader(X_SERVED_BY, "test");
+                super.handle(target, baseRequest, request, response);
+            }
+        };
+        servedBy.setHandler(server.getHandler());
+        server.setHandler(servedBy);
+        // A retry returns from its dispatch once it waits asynchronously for the original request.
+        server.getBean(ServerConnector.class).addBean(new HttpChannel.Listener()
+        {
+            @Override
+            public void onAfterDispatch(org.eclipse.jetty.server.Request request)
+            {
+                dispatched.incrementAndGet();
+            }
+        });
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    @Test
+    public void testPostWithSameKeyIsReplayed() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ContentResponse first = post("/dump/foo", "key-1", "first");
+        assertThat("first.status", first.getStatus(), is(HttpStatus.OK_200));
+        assertThat("first.replayed", first.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), nullValue());
+
+        ContentResponse retry = post("/dump/foo", "key-1", "retry");
+        assertThat("retry.status", retry.getStatus(), is(HttpStatus.OK_200));
+        assertThat("retry.replayed", retry.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), is("true"));
+        assertThat("retry.content", retry.getContentAsString(), is(first.getContentAsString()));
+    }
+
+    @Test
+    public void testReplayDoesNotRepeatHandlerHeaders() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ContentResponse first = post("/dump/foo", "key-1", "first");
+        assertThat("first.servedBy", first.getHeaders().getValuesList(X_SERVED_BY), contains("test"));
+
+        // The handler adds its header to the replayed response again, it is not replayed as well.
+        ContentResponse retry = post("/dump/foo", "key-1", "retry");
+        assertThat("retry.replayed", retry.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), is("true"));
+        assertThat("retry.servedBy", retry.getHeaders().getValuesList(X_SERVED_BY), contains("test"));
+        assertThat("retry.contentType", retry.getHeaders().get(HttpHeader.CONTENT_TYPE), is(first.getHeaders().get(HttpHeader.CONTENT_TYPE)));
+    }
+
+    @Test
+    public void testPostWithDifferentKeyIsNotReplayed() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        post("/dump/foo", "key-1", "first");
+
+        ContentResponse other = post("/dump/foo", "key-2", "other");
+        assertThat("other.status", other.getStatus(), is(HttpStatus.OK_200));
+        assertThat("other.replayed", other.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), nullValue());
+    }
+
+    @Test
+    public void testPostWithoutKeyIsNotReplayed() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        post("/dump/foo", null, "first");
+
+        ContentResponse second = post("/dump/foo", null, "second");
+        assertThat("second.status", second.getStatus(), is(HttpStatus.OK_200));
+        assertThat("second.replayed", second.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), nullValue());
+    }
+
+    @Test
+    public void testAsyncPostWithSameKeyIsReplayed() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ContentResponse first = post("/stream/x", "key-1", "first");
+        assertThat("first.status", first.getStatus(), is(HttpStatus.OK_200));
+        assertThat("first.replayed", first.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), nullValue());
+
+        ContentResponse retry = post("/stream/x", "key-1", "retry");
+        assertThat("retry.status", retry.getStatus(), is(HttpStatus.OK_200));
+        assertThat("retry.replayed", retry.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), is("true"));
+        assertThat("retry.content", retry.getContentAsString(), is(first.getContentAsString()));
+    }
+
+    @Test
+    public void testRetryWaitsForInFlightRequest() throws Exception
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/slow"))
+            .headers(headers -> headers.put(IdempotencyFilter.IDEMPOTENCY_KEY, "key-1"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener first = new FutureResponseListener(request);
+        FutureResponseListener retry;
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(first);
+            out.write(new byte[100]);
+            out.flush();
+
+            // Wait for the first request to own the key.
+            awaitEntryCount(1);
+
+            Request retryRequest = client.POST(server.getURI().resolve("/stream/slow"))
+                .headers(headers -> headers.put(IdempotencyFilter.IDEMPOTENCY_KEY, "key-1"))
+                .content(new BytesContentProvider(new byte[10]), "application/octet-stream");
+            retry = new FutureResponseListener(retryRequest);
+            retryRequest.send(retry);
+            awaitDispatched(2);
+
+            assertThrows(TimeoutException.class, () -> retry.get(500, TimeUnit.MILLISECONDS), "retry waits");
+        }
+
+        ContentResponse firstResponse = first.get(5, TimeUnit.SECONDS);
+        assertThat("first.status", firstResponse.getStatus(), is(HttpStatus.OK_200));
+        assertThat("first.content", firstResponse.getContentAsString(), containsString("received=100"));
+
+        ContentResponse retryResponse = retry.get(5, TimeUnit.SECONDS);
+        assertThat("retry.status", retryResponse.getStatus(), is(HttpStatus.OK_200));
+        assertThat("retry.replayed", retryResponse.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), is("true"));
+        assertThat("retry.content", retryResponse.getContentAsString(), is(firstResponse.getContentAsString()));
+    }
+
+    @Test
+    public void testRetryOfAbandonedRequestConflicts() throws Exception
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/slow"))
+            .headers(headers -> headers.put(IdempotencyFilter.IDEMPOTENCY_KEY, "key-1"))
+            .content(content, "application/octet-stream");
+        request.send(result ->
+        {
+        });
+        try (OutputStream out = content.getOutputStream())
+        {
+            out.write(new byte[100]);
+            out.flush();
+
+            awaitEntryCount(1);
+
+            Request retryRequest = client.POST(server.getURI().resolve("/stream/slow"))
+                .headers(headers -> headers.put(IdempotencyFilter.IDEMPOTENCY_KEY, "key-1"))
+                .content(new BytesContentProvider(new byte[10]), "application/octet-stream");
+            FutureResponseListener retry = new FutureResponseListener(retryRequest);
+            retryRequest.send(retry);
+            awaitDispatched(2);
+
+            // The first request fails before it completes its response.
+            request.abort(new Exception("client gave up"));
+
+            ContentResponse retryResponse = retry.get(5, TimeUnit.SECONDS);
+            assertThat("retry.status", retryResponse.getStatus(), is(HttpStatus.CONFLICT_409));
+        }
+
+        // The key is forgotten, so the next retry is processed for real.
+        awaitEntryCount(0);
+        ContentResponse next = post("/stream/slow", "key-1", "next");
+        assertThat("next.status", next.getStatus(), is(HttpStatus.OK_200));
+        assertThat("next.replayed", next.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), nullValue());
+    }
+
+    @Test
+    public void testBlockingRetryOfInFlightRequestConflicts() throws Exception
+    {
+        // Without async support, a retry can't wait without holding a request thread.
+        server.stop();
+        server = Main.newServer(0);
+        getFilterHolder().setAsyncSupported(false);
+        server.start();
+
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/dump/slow"))
+            .headers(headers -> headers.put(IdempotencyFilter.IDEMPOTENCY_KEY, "key-1"))
+            .content(content, "application/x-www-form-urlencoded");
+        FutureResponseListener first = new FutureResponseListener(request);
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(first);
+            out.write("name=first".getBytes(UTF_8));
+            out.flush();
+
+            awaitEntryCount(1);
+
+            ContentResponse retry = post("/dump/slow", "key-1", "retry");
+            assertThat("retry.status", retry.getStatus(), is(HttpStatus.CONFLICT_409));
+        }
+
+        ContentResponse firstResponse = first.get(5, TimeUnit.SECONDS);
+        assertThat("first.status", firstResponse.getStatus(), is(HttpStatus.OK_200));
+
+        // Once the original request completed, a retry is replayed.
+        ContentResponse next = post("/dump/slow", "key-1", "next");
+        assertThat("next.replayed", next.getHeaders().get(IdempotencyFilter.IDEMPOTENT_REPLAYED), is("true"));
+        assertThat("next.content", next.getContentAsString(), is(firstResponse.getContentAsString()));
+    }
+
+    private void awaitEntryCount(int count) throws InterruptedException
+    {
+        IdempotencyCache cache = getFilter().getCache();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getEntryCount() != count && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat("entry count", cache.getEntryCount(), is(count));
+    }
+
+    private void awaitDispatched(int count) throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatched.get() < count && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat("dispatched", dispatched.get(), is(count));
+    }
+
+    private FilterHolder getFilterHolder()
+    {
+        ServletHandler servletHandler = server.getChildHandlerByClass(ServletHandler.class);
+        return Arrays.stream(servletHandler.getFilters())
+            .filter(holder -> holder.getHeldClass() == IdempotencyFilter.class)
+            .findFirst()
+            .orElseThrow();
+    }
+
+    private IdempotencyFilter getFilter()
+    {
+        return (IdempotencyFilter)getFilterHolder().getFilter();
+    }
+
+    private ContentResponse post(String path, String idempotencyKey, String name) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        Fields fields = new Fields();
+        fields.add("name", name);
+        return client.POST(server.getURI().resolve(path))
+            .headers(headers -> headers.put(IdempotencyFilter.IDEMPOTENCY_KEY, idempotencyKey))
+            .content(new FormContentProvider(fields))
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+    }
+}
@@ -33,6 +33,7 @@ import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.util.FormContentProvider;
 import org.eclipse.jetty.client.util.FutureResponseListener;
 import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
@@ -116,6 +117,17 @@ public class MaxRequestSizeTest
         assertThat("response.content", response.getContentAsString(), containsString("Request Size Exceeded"));
     }
 
+    @Test
+    public void testPostDumpWithUnsupportedCharset(TestInfo testInfo) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ContentResponse response = client.POST(server.getURI().resolve("/dump/x"))
+            .header(X_TEST_INFO, testInfo.getDisplayName())
+            .content(new StringContentProvider("application/x-www-form-urlencoded; charset=bogus", "name=foo", UTF_8))
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.UNSUPPORTED_MEDIA_TYPE_415));
+        assertThat("response.content", response.getContentAsString(), containsString("Unsupported charset bogus"));
+    }
+
     @Test
     public void testPostDumpWithChunkedTransferEncoding(TestInfo testInfo) throws InterruptedException, ExecutionException, TimeoutException, IOException
     {
@@ -363,6 +375,48 @@ public class MaxRequestSizeTest
         assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
     }
 
+    @Test
+    public void testPostMultipartAllowance(TestInfo testInfo) throws InterruptedException, ExecutionException, TimeoutException, IOException
+    {
+        ContentResponse response = postStream(testInfo, "multipart/form-data; boundary=xyz", "--xyz\r\n", 2048);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("response.content", response.getContentAsString(), containsString("received=2048"));
+    }
+
+    @Test
+    public void testPostMislabeledMultipart(TestInfo testInfo) throws InterruptedException, ExecutionException, TimeoutException, IOException
+    {
+        ContentResponse response = postStream(testInfo, "multipart/form-data; boundary=xyz", "name=", 2048);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        assertThat("response.content", response.getContentAsString(), containsString("Exceeded max request size of 1024"));
+    }
+
+    @Test
+    public void testPostMultipartWithOtherBoundary(TestInfo testInfo) throws InterruptedException, ExecutionException, TimeoutException, IOException
+    {
+        ContentResponse response = postStream(testInfo, "multipart/form-data; boundary=xyz", "--abc\r\n", 2048);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        assertThat("response.content", response.getContentAsString(), containsString("Exceeded max request size of 1024"));
+    }
+
+    private ContentResponse postStream(TestInfo testInfo, String contentType, String prefix, int size) throws InterruptedException, ExecutionException, TimeoutException, IOException
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/foo"))
+            .header(X_TEST_INFO, testInfo.getDisplayName())
+            .content(content, contentType);
+        FutureResponseListener listener = new FutureResponseListener(request);
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(listener);
+            byte[] bodyBuf = new byte[size];
+            Arrays.fill(bodyBuf, (byte)'x');
+            System.arraycopy(prefix.getBytes(UTF_8), 0, bodyBuf, 0, prefix.length());
+            writeBuffered(bodyBuf, out, 100);
+        }
+        return listener.get(5, TimeUnit.SECONDS);
+    }
+
     private static byte[] newFormBodyBuf(int size)
     {
         StringBuilder body = new StringBuilder();
@@ -0,0 +1,108 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MaxResponseSizeTest
+{
+    private Server server;
+    private HttpClient client;
+    private SizeLimitMetrics metrics;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0);
+        MaxRequestSizeHandler maxRequestSizeHandler = server.getChildHandlerByClass(MaxRequestSizeHandler.class);
+        maxRequestSizeHandler.addResponseLimit("/dump/small", 64);
+        maxRequestSizeHandler.addResponseLimit("/dump/both", 65536);
+        metrics = server.getBean(SizeLimitMetrics.class);
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    @Test
+    public void testResponseBytesCounted() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ContentResponse response = client.newRequest(server.getURI().resolve("/dump/foo"))
+            .headers(headers -> headers.remove(HttpHeader.ACCEPT_ENCODING))
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("responses", metrics.getResponses(), is(1L));
+        assertThat("responseBytes", metrics.getResponseBytes(), is((long)response.getContent().length));
+        assertThat("responseWireBytes", metrics.getResponseWireBytes(), is((long)response.getContent().length));
+    }
+
+    @Test
+    public void testCompressedResponseBytesCounted() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ContentResponse response = client.newRequest(server.getURI().resolve("/dump/foo"))
+            .headers(headers -> headers.put(HttpHeader.ACCEPT_ENCODING, "gzip"))
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("responseBytes", metrics.getResponseBytes(), is((long)response.getContent().length));
+        assertThat("responseWireBytes", metrics.getResponseWireBytes(), lessThan(metrics.getResponseBytes()));
+    }
+
+    @Test
+    public void testResponseCheckedOnceByHandlerAndFilter() throws InterruptedException, ExecutionException, TimeoutException
+    {
+        // Both the handler and the filter limit /dump/both, the filter finds the check of the handler.
+        ContentResponse response = client.newRequest(server.getURI().resolve("/dump/both"))
+            .headers(headers -> headers.remove(HttpHeader.ACCEPT_ENCODING))
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("responses", metrics.getResponses(), is(1L));
+        assertThat("responseBytes", metrics.getResponseBytes(), is((long)response.getContent().length));
+    }
+
+    @Test
+    public void testResponseTooLargeIsAborted()
+    {
+        assertThrows(ExecutionException.class, () -> client.GET(server.getURI().resolve("/dump/small")));
+        assertThat("responsesAborted", metrics.getResponsesAborted(), is(1L));
+        assertThat("responses", metrics.getResponses(), is(0L));
+    }
+}
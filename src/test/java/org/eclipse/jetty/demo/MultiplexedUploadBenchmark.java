@@ -0,0 +1,114 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * Compares concurrent uploads over HTTP/1.1 connections with uploads multiplexed over a single HTTP/2 connection.
+ * <p>
+ * Run the {@code main} method with the test classpath, optionally passing the number of uploads per round
+ * and the number of concurrent uploads. One upload in ten is over the max request size, so the cost of
+ * rejections (a closed connection for HTTP/1.1, a reset stream for HTTP/2) is part of the measure.
+ * </p>
+ */
+public class MultiplexedUploadBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int uploads = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        Server server = Main.newServer(0, true);
+        // All the uploads come from the same address, and a slot may be released after its client
+        // already got the response, so don't cap concurrent uploads at all for this measure.
+        server.getChildHandlerByClass(ConcurrentUploadLimitHandler.class).setMaxConcurrentUploads(Integer.MAX_VALUE);
+        ServerConnector connector = server.getBean(ServerConnector.class);
+        ConnectionStatistics connections = new ConnectionStatistics();
+        connector.addBean(connections);
+        server.start();
+
+        HttpClient http11 = new HttpClient();
+        http11.setMaxConnectionsPerDestination(concurrency);
+        http11.setMaxRequestsQueuedPerDestination(uploads);
+        HttpClient http2 = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()));
+        http2.setMaxConnectionsPerDestination(1);
+        http2.setMaxRequestsQueuedPerDestination(uploads);
+        http11.start();
+        http2.start();
+        try
+        {
+            for (int round = 0; round < 3; round++)
+            {
+                report("http/1.1", http11, server, connections, uploads, concurrency);
+                report("h2c", http2, server, connections, uploads, concurrency);
+            }
+        }
+        finally
+        {
+            http11.stop();
+            http2.stop();
+            server.stop();
+        }
+    }
+
+    private static void report(String name, HttpClient client, Server server, ConnectionStatistics connections, int uploads, int concurrency) throws Exception
+    {
+        byte[] allowed = new byte[900];
+        byte[] rejected = new byte[4096];
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch latch = new CountDownLatch(uploads);
+        LongAdder ok = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long connectionsBefore = connections.getConnectionsTotal();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < uploads; i++)
+        {
+            permits.acquire();
+            client.POST(server.getURI().resolve("/stream/bench"))
+                .content(new BytesContentProvider(i % 10 == 0 ? rejected : allowed), "application/octet-stream")
+                .send(result ->
+                {
+                    if (result.isSucceeded() && result.getResponse().getStatus() == 200)
+                        ok.increment();
+                    else
+                        failed.increment();
+                    permits.release();
+                    latch.countDown();
+                });
+        }
+        latch.await(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-8s %,8d uploads/s %,6d ok %,6d rejected %,6d connections%n",
+            name, TimeUnit.SECONDS.toNanos(uploads) / elapsed, ok.sum(), failed.sum(), connections.getConnectionsTotal() - connectionsBefore);
+    }
+}
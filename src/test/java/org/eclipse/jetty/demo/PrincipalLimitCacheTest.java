@@ -0,0 +1,131 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.security.auth.Subject;
+
+import org.eclipse.jetty.security.DefaultUserIdentity;
+import org.eclipse.jetty.server.UserIdentity;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class PrincipalLimitCacheTest
+{
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private static UserIdentity newUser(String name, String... roles)
+    {
+        Principal principal = () -> name;
+        return new DefaultUserIdentity(new Subject(), principal, roles);
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+        {
+            task.run();
+        }
+    }
+
+    @Test
+    public void testMissUsesDefaultUntilResolved()
+    {
+        RoleLimitResolver resolver = new RoleLimitResolver();
+        resolver.put("premium", 65536);
+        resolver.put("standard", 2048);
+        PrincipalLimitCache cache = new PrincipalLimitCache(resolver, tasks::add, 16, 1, TimeUnit.HOURS);
+        UserIdentity user = newUser("alice", "standard", "premium");
+
+        assertThat("limit before resolution", cache.getLimit(user, 1024), is(1024L));
+        assertThat("single load", tasks.size(), is(1));
+        assertThat("limit while loading", cache.getLimit(user, 1024), is(1024L));
+        assertThat("single load", tasks.size(), is(1));
+
+        runTasks();
+        assertThat("resolved limit", cache.getLimit(user, 1024), is(65536L));
+        assertThat("no reload", tasks.size(), is(0));
+
+        assertThat("user without roles", cache.getLimit(newUser("bob"), 1024), is(1024L));
+        runTasks();
+        assertThat("user without roles", cache.getLimit(newUser("bob"), 1024), is(1024L));
+    }
+
+    @Test
+    public void testExpiryAndEviction() throws Exception
+    {
+        PrincipalLimitCache cache = new PrincipalLimitCache((user, defaultLimit) -> defaultLimit * 2, tasks::add, 2, 1, TimeUnit.MILLISECONDS);
+        UserIdentity alice = newUser("alice");
+
+        cache.getLimit(alice, 1024);
+        runTasks();
+        Thread.sleep(10);
+        assertThat("expired limit is used while reloading", cache.getLimit(alice, 4096), is(2048L));
+        runTasks();
+        assertThat("reloaded limit", cache.getLimit(alice, 4096), is(8192L));
+
+        cache.getLimit(newUser("bob"), 1024);
+        cache.getLimit(newUser("carol"), 1024);
+        assertThat("bounded", cache.getEntryCount(), is(2));
+    }
+
+    @Test
+    public void testResolverFailureUsesDefault()
+    {
+        PrincipalLimitCache cache = new PrincipalLimitCache((user, defaultLimit) ->
+        {
+            throw new IllegalStateException("directory unavailable");
+        }, tasks::add, 16, 1, TimeUnit.HOURS);
+        UserIdentity alice = newUser("alice");
+
+        cache.getLimit(alice, 1024);
+        runTasks();
+        assertThat("default limit", cache.getLimit(alice, 1024), is(1024L));
+    }
+
+    @Test
+    public void testRejectedLoadIsRetried()
+    {
+        RoleLimitResolver resolver = new RoleLimitResolver();
+        resolver.put("premium", 65536);
+        AtomicBoolean full = new AtomicBoolean(true);
+        PrincipalLimitCache cache = new PrincipalLimitCache(resolver, task ->
+        {
+            if (full.get())
+                throw new RejectedExecutionException("queue full");
+            tasks.add(task);
+        }, 16, 1, TimeUnit.HOURS);
+        UserIdentity alice = newUser("alice", "premium");
+
+        assertThat("rejected load", cache.getLimit(alice, 1024), is(1024L));
+        full.set(false);
+        assertThat("retried load", cache.getLimit(alice, 1024), is(1024L));
+        assertThat("retried load", tasks.size(), is(1));
+        runTasks();
+        assertThat("resolved limit", cache.getLimit(alice, 1024), is(65536L));
+    }
+}
@@ -0,0 +1,151 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+
+package org.eclipse.jetty.demo;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.security.ConstraintMapping;
+import org.eclipse.jetty.security.ConstraintSecurityHandler;
+import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.security.UserStore;
+import org.eclipse.jetty.security.authentication.BasicAuthenticator;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.security.Constraint;
+import org.eclipse.jetty.util.security.Credential;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Per-principal limits applied by the {@link MaxRequestSizeFilter} to users authenticated by a login service.
+ */
+public class PrincipalLimitTest
+{
+    private static final String MULTIPART = "multipart/form-data; boundary=xyz";
+
+    private Server server;
+    private HttpClient client;
+    private HashLoginService loginService;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0);
+
+        UserStore userStore = new UserStore();
+        userStore.addUser("premium", Credential.getCredential("secret"), new String[]{"user", "premium"});
+        userStore.addUser("standard", Credential.getCredential("secret"), new String[]{"user"});
+        loginService = new HashLoginService("demo");
+        loginService.setUserStore(userStore);
+
+        Constraint constraint = new Constraint(Constraint.__BASIC_AUTH, "user");
+        constraint.setAuthenticate(true);
+        ConstraintMapping mapping = new ConstraintMapping();
+        mapping.setPathSpec("/dump/*");
+        mapping.setConstraint(constraint);
+        ConstraintSecurityHandler securityHandler = new ConstraintSecurityHandler();
+        securityHandler.setLoginService(loginService);
+        securityHandler.setAuthenticator(new BasicAuthenticator());
+        securityHandler.addConstraintMapping(mapping);
+        server.getChildHandlerByClass(ServletContextHandler.class).setSecurityHandler(securityHandler);
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    private ContentResponse post(String user, String contentType, int size) throws Exception
+    {
+        String credentials = Base64.getEncoder().encodeToString((user + ":secret").getBytes(UTF_8));
+        return client.POST(server.getURI().resolve("/dump/foo"))
+            .header(HttpHeader.AUTHORIZATION, "Basic " + credentials)
+            .content(new BytesContentProvider(new byte[size]), contentType)
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+    }
+
+    /**
+     * Limits are resolved in the background, so wait for the limit of the user to be cached.
+     */
+    private void awaitLimit(String user, long limit) throws InterruptedException
+    {
+        PrincipalLimitCache cache = server.getBean(PrincipalLimitCache.class);
+        UserIdentity identity = loginService.login(user, "secret", null);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getLimit(identity, 1024) != limit && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat("limit of " + user, cache.getLimit(identity, 1024), is(limit));
+    }
+
+    @Test
+    public void testPremiumUserOverridesContentTypeLimits() throws Exception
+    {
+        // Before the limit of the user is resolved, the configured limits apply.
+        assertThat("unresolved", post("premium", "application/octet-stream", 2048).getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        awaitLimit("premium", 65536);
+
+        assertThat("default type", post("premium", "application/octet-stream", 8192).getStatus(), is(HttpStatus.OK_200));
+        assertThat("multipart", post("premium", MULTIPART, 8192).getStatus(), is(HttpStatus.OK_200));
+        assertThat("over user limit", post("premium", MULTIPART, 65536 + 1).getStatus(), is(HttpStatus.BAD_REQUEST_400));
+    }
+
+    @Test
+    public void testStandardUserHasContentTypeLimits() throws Exception
+    {
+        post("standard", "application/octet-stream", 0);
+        awaitLimit("standard", 1024);
+
+        assertThat("default type", post("standard", "application/octet-stream", 2048).getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        assertThat("multipart", post("standard", MULTIPART, 2048).getStatus(), is(HttpStatus.OK_200));
+        assertThat("over multipart limit", post("standard", MULTIPART, 8192).getStatus(), is(HttpStatus.BAD_REQUEST_400));
+    }
+
+    @Test
+    public void testUnauthenticated() throws Exception
+    {
+        ContentResponse response = client.POST(server.getURI().resolve("/dump/foo"))
+            .content(new BytesContentProvider(new byte[100]), "application/octet-stream")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.UNAUTHORIZED_401));
+    }
+}
@@ -0,0 +1,152 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class RejectedBodyCaptureTest
+{
+    private Server server;
+    private HttpClient client;
+    private RejectedBodyCapture capture;
+    private LocalConnector localConnector;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0);
+        capture = new RejectedBodyCapture(2, 32, 1);
+        Main.enableRejectedBodyCapture(server, capture);
+        localConnector = new LocalConnector(server);
+        server.addConnector(localConnector);
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    private ContentResponse postChunked(String body) throws Exception
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/foo"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener listener = new FutureResponseListener(request);
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(listener);
+            byte[] bytes = body.getBytes(UTF_8);
+            for (int written = 0; written < bytes.length; written += 100)
+            {
+                out.write(bytes, written, Math.min(100, bytes.length - written));
+                out.flush();
+            }
+        }
+        return listener.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRejectedBodyCaptured() throws Exception
+    {
+        ContentResponse response = postChunked("accepted-body" + "x".repeat(500));
+        assertThat("accepted.status", response.getStatus(), is(HttpStatus.OK_200));
+
+        response = postChunked("rejected\u0001body" + "x".repeat(2000));
+        assertThat("rejected.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+
+        ContentResponse dump = client.GET(server.getURI().resolve("/admin/rejected-bodies"));
+        assertThat("dump.status", dump.getStatus(), is(HttpStatus.OK_200));
+        String content = dump.getContentAsString();
+        assertThat("dump", content, containsString("path=/stream/foo"));
+        assertThat("dump", content, containsString("maxSize=1024"));
+        assertThat("dump", content, containsString("rejected\\x01body" + "x".repeat(19) + "\n"));
+        assertThat("dump", content, not(containsString("accepted-body")));
+    }
+
+    @Test
+    public void testDumpOnlyForLocalClients() throws Exception
+    {
+        // A LocalConnector endpoint has the non-loopback remote address 0.0.0.0.
+        HttpTester.Response response = HttpTester.parseResponse(localConnector.getResponse(
+            "GET /admin/rejected-bodies HTTP/1.1\r\n" +
+            "Host: local\r\n" +
+            "Connection: close\r\n" +
+            "\r\n"));
+        assertThat("remote.status", response.getStatus(), is(HttpStatus.FORBIDDEN_403));
+    }
+
+    @Test
+    public void testDumpNotMappedUnlessEnabled() throws Exception
+    {
+        Server other = Main.newServer(0);
+        other.start();
+        try
+        {
+            ContentResponse response = client.GET(other.getURI().resolve("/admin/rejected-bodies"));
+            assertThat("dump.status", response.getStatus(), is(HttpStatus.NOT_FOUND_404));
+        }
+        finally
+        {
+            other.stop();
+        }
+    }
+
+    @Test
+    public void testStagingBuffersReturned() throws Exception
+    {
+        // More accepted requests than staging buffers, each must return its buffer.
+        for (int i = 0; i < 5; i++)
+        {
+            assertThat("accepted.status", postChunked("x".repeat(500)).getStatus(), is(HttpStatus.OK_200));
+        }
+        for (int i = 0; i < 5; i++)
+        {
+            assertThat("rejected.status", postChunked("x".repeat(2000)).getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        }
+        assertThat("missed", capture.getMissed(), is(0L));
+        assertThat("published", capture.getPublished(), is(5L));
+    }
+}
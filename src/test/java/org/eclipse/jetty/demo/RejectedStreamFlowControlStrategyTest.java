@@ -0,0 +1,102 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+
+package org.eclipse.jetty.demo;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.http2.ISession;
+import org.eclipse.jetty.http2.IStream;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class RejectedStreamFlowControlStrategyTest
+{
+    /**
+     * A stream that keeps its attributes and records its recv window updates, past its creation.
+     */
+    private static IStream newStream(List<Integer> recvWindowUpdates)
+    {
+        Map<String, Object> attributes = new HashMap<>();
+        return (IStream)Proxy.newProxyInstance(IStream.class.getClassLoader(), new Class<?>[]{IStream.class}, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getAttribute":
+                    return attributes.get((String)args[0]);
+                case "setAttribute":
+                    attributes.put((String)args[0], args[1]);
+                    return null;
+                case "updateRecvWindow":
+                    recvWindowUpdates.add((Integer)args[0]);
+                    return 0;
+                case "updateSendWindow":
+                case "getId":
+                    return 0;
+                case "isRemotelyClosed":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static ISession newSession()
+    {
+        return (ISession)Proxy.newProxyInstance(ISession.class.getClassLoader(), new Class<?>[]{ISession.class}, (proxy, method, args) ->
+            method.getReturnType() == int.class ? 0 : null);
+    }
+
+    @Test
+    public void testRejectedStreamIsNotGrantedWindow()
+    {
+        RejectedStreamFlowControlStrategy strategy = new RejectedStreamFlowControlStrategy(0.5F);
+        ISession session = newSession();
+        List<Integer> accepted = new ArrayList<>();
+        List<Integer> rejected = new ArrayList<>();
+        IStream acceptedStream = newStream(accepted);
+        IStream rejectedStream = newStream(rejected);
+        strategy.onStreamCreated(acceptedStream);
+        strategy.onStreamCreated(rejectedStream);
+        accepted.clear();
+        rejected.clear();
+
+        RejectedStreamFlowControlStrategy.onRejected(rejectedStream);
+        assertThat("rejected", RejectedStreamFlowControlStrategy.isRejected(rejectedStream), is(true));
+        assertThat("accepted", RejectedStreamFlowControlStrategy.isRejected(acceptedStream), is(false));
+
+        // More than half of the default initial window of 65535 bytes.
+        strategy.onDataConsumed(session, rejectedStream, 40000);
+        strategy.onDataConsumed(session, acceptedStream, 40000);
+        assertThat("rejected stream window", rejected, empty());
+        assertThat("accepted stream window", accepted, contains(40000));
+    }
+}
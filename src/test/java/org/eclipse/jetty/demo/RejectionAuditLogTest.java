@@ -0,0 +1,109 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class RejectionAuditLogTest
+{
+    @TempDir
+    public Path tempDir;
+    private Server server;
+    private HttpClient client;
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    @Test
+    public void testRejectionWritten() throws Exception
+    {
+        server = Main.newServer(0, false, tempDir.resolve("rejections.log"));
+        RejectionAuditLog auditLog = server.getBean(RejectionAuditLog.class);
+        server.start();
+        client = new HttpClient();
+        client.start();
+
+        ContentResponse response = client.POST(server.getURI().resolve("/foo.upload"))
+            .content(new StringContentProvider("x".repeat(2048)), "application/octet-stream")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+        assertThat("response.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+
+        server.stop();
+        List<String> lines = Files.readAllLines(auditLog.getFile(), UTF_8);
+        assertThat("lines", lines.size(), is(1));
+        assertThat("line", lines.get(0), containsString("\t/foo.upload\t2048\t0\t1024\t" + RejectionAuditLog.REASON_DECLARED_LENGTH));
+        assertThat("written", auditLog.getWritten(), is(1L));
+    }
+
+    @Test
+    public void testRollsBySizeInBytes() throws Exception
+    {
+        RejectionAuditLog auditLog = new RejectionAuditLog(tempDir.resolve("rejections.log"), 16);
+        // Each line is well under 100 chars, but over 100 bytes.
+        String path = "/" + "\u20AC".repeat(25) + ".upload";
+        auditLog.setMaxFileSize(100);
+        auditLog.start();
+        auditLog.record("127.0.0.1", path, -1, RejectionAuditLog.REASON_BODY_SIZE, 1024, 2048);
+        auditLog.record("127.0.0.1", path, -1, RejectionAuditLog.REASON_BODY_SIZE, 1024, 2048);
+        auditLog.stop();
+
+        Path rolled = tempDir.resolve("rejections.log.1");
+        assertThat("rolled", Files.exists(rolled), is(true));
+        assertThat("rolled lines", Files.readAllLines(rolled, UTF_8).size(), is(1));
+        assertThat("lines", Files.readAllLines(auditLog.getFile(), UTF_8).size(), is(1));
+        assertThat("line", Files.readAllLines(auditLog.getFile(), UTF_8).get(0), containsString(path));
+    }
+
+    @Test
+    public void testFullRingDrops()
+    {
+        // Not started, so nothing consumes the ring.
+        RejectionAuditLog auditLog = new RejectionAuditLog(tempDir.resolve("rejections.log"), 4);
+        for (int i = 0; i < 6; i++)
+        {
+            auditLog.record("127.0.0.1", "/foo.upload", -1, RejectionAuditLog.REASON_BODY_SIZE, 1024, 2048);
+        }
+
+        assertThat("capacity", auditLog.getCapacity(), is(4));
+        assertThat("dropped", auditLog.getDropped(), is(2L));
+    }
+}
@@ -0,0 +1,260 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.HttpInput;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class RequestBodyPublisherTest
+{
+    private final BlockingQueue<ByteBuffer> received = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    private final AtomicBoolean readBeforeListening = new AtomicBoolean();
+    private Server server;
+    private HttpClient client;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        server = Main.newServer(0);
+        // Consumes the body only as fast as the test requests it.
+        ServletContextHandler contextHandler = server.getChildHandlerByClass(ServletContextHandler.class);
+        ServletHolder demandHolder = new ServletHolder(new DemandServlet());
+        demandHolder.setAsyncSupported(true);
+        contextHandler.addServlet(demandHolder, "/demand/*");
+        server.start();
+
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    @Test
+    public void testStreamAllowedSize() throws Exception
+    {
+        ContentResponse response = postChunked(900);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("response.content", response.getContentAsString(), containsString("received=900"));
+    }
+
+    @Test
+    public void testStreamTooLarge() throws Exception
+    {
+        ContentResponse response = postChunked(4096);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.BAD_REQUEST_400));
+        assertThat("response.content", response.getContentAsString(), containsString("Exceeded max request size"));
+    }
+
+    @Test
+    public void testReadStallsWithoutDemand() throws Exception
+    {
+        // Much more than the socket and connection buffers hold, so the client stalls.
+        long size = 64 * 1024 * 1024;
+        AtomicLong written = new AtomicLong();
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/demand/foo"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener listener = new FutureResponseListener(request);
+        request.send(listener);
+        Thread writer = new Thread(() ->
+        {
+            try (OutputStream out = content.getOutputStream())
+            {
+                byte[] chunk = new byte[64 * 1024];
+                while (written.get() < size)
+                {
+                    out.write(chunk);
+                    written.addAndGet(chunk.length);
+                }
+            }
+            catch (IOException x)
+            {
+                // the request failed, the test will report it
+            }
+        });
+        writer.start();
+
+        // The subscriber requested 2 buffers and stopped requesting.
+        assertThat("first", received.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat("second", received.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat("no onNext without demand", received.poll(500, TimeUnit.MILLISECONDS), nullValue());
+
+        long stalled = written.get();
+        Thread.sleep(500);
+        assertThat("client stalled", written.get(), is(stalled));
+        assertThat("client stalled", stalled, lessThan(size));
+        assertThat("no onNext without demand", received.isEmpty(), is(true));
+
+        // Demand resumes reading.
+        subscription.get(5, TimeUnit.SECONDS).request(1);
+        assertThat("resumed", received.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat("no onNext beyond demand", received.poll(200, TimeUnit.MILLISECONDS), nullValue());
+
+        subscription.get().request(Long.MAX_VALUE);
+        ContentResponse response = listener.get(30, TimeUnit.SECONDS);
+        writer.join(5000);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("response.content", response.getContentAsString(), containsString("received=" + size));
+    }
+
+    @Test
+    public void testDemandFromOnSubscribeWaitsForReadListener() throws Exception
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/demand/foo"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener listener = new FutureResponseListener(request);
+        request.send(listener);
+        try (OutputStream out = content.getOutputStream())
+        {
+            // The client only sends the request with its first content.
+            out.write(new byte[100]);
+            out.flush();
+            // The subscriber requested from onSubscribe, but the content is only read
+            // once the read listener is installed, never with blocking reads.
+            assertThat("subscribed", subscribed.await(5, TimeUnit.SECONDS), is(true));
+            out.write(new byte[2900]);
+        }
+
+        assertThat("first", received.poll(5, TimeUnit.SECONDS), notNullValue());
+        assertThat("second", received.poll(5, TimeUnit.SECONDS), notNullValue());
+        subscription.get(5, TimeUnit.SECONDS).request(Long.MAX_VALUE);
+        ContentResponse response = listener.get(5, TimeUnit.SECONDS);
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("response.content", response.getContentAsString(), containsString("received=3000"));
+        assertThat("read before listening", readBeforeListening.get(), is(false));
+    }
+
+    private class DemandServlet extends HttpServlet
+    {
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException
+        {
+            HttpInput input = org.eclipse.jetty.server.Request.getBaseRequest(request).getHttpInput();
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(0);
+            new RequestBodyPublisher(asyncContext, 1024).subscribe(new Flow.Subscriber<>()
+            {
+                private long bytes;
+
+                @Override
+                public void onSubscribe(Flow.Subscription s)
+                {
+                    s.request(2);
+                    subscription.complete(s);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item)
+                {
+                    if (!input.isAsync())
+                        readBeforeListening.set(true);
+                    bytes += item.remaining();
+                    // Only the first buffers are kept for the assertions.
+                    if (received.size() < 16)
+                        received.add(item);
+                }
+
+                @Override
+                public void onError(Throwable failure)
+                {
+                    asyncContext.complete();
+                }
+
+                @Override
+                public void onComplete()
+                {
+                    try
+                    {
+                        asyncContext.getResponse().getWriter().print("received=" + bytes);
+                    }
+                    catch (IOException ignored)
+                    {
+                        // the response can no longer be written
+                    }
+                    asyncContext.complete();
+                }
+            });
+            subscribed.countDown();
+        }
+    }
+
+    private ContentResponse postChunked(int size) throws Exception
+    {
+        OutputStreamContentProvider content = new OutputStreamContentProvider();
+        Request request = client.POST(server.getURI().resolve("/stream/foo"))
+            .content(content, "application/octet-stream");
+        FutureResponseListener listener = new FutureResponseListener(request);
+        try (OutputStream out = content.getOutputStream())
+        {
+            request.send(listener);
+            byte[] chunk = new byte[100];
+            Arrays.fill(chunk, (byte)'x');
+            for (int written = 0; written < size; written += chunk.length)
+            {
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+                out.flush();
+            }
+        }
+        return listener.get(5, TimeUnit.SECONDS);
+    }
+}
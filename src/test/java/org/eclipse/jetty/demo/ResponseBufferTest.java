@@ -0,0 +1,184 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+
+package org.eclipse.jetty.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.demo.servlets.ResponseBuffer;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class ResponseBufferTest
+{
+    private final AtomicInteger acquired = new AtomicInteger();
+    private final ArrayByteBufferPool pool = new ArrayByteBufferPool()
+    {
+        @Override
+        public ByteBuffer acquire(int size, boolean direct)
+        {
+            acquired.incrementAndGet();
+            return super.acquire(size, direct);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer)
+        {
+            acquired.decrementAndGet();
+            super.release(buffer);
+        }
+    };
+
+    /**
+     * Write the buffer to a response that only records its content.
+     */
+    private byte[] writeAndRelease(ResponseBuffer buffer) throws Exception
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        AtomicInteger contentLength = new AtomicInteger(-1);
+        ServletOutputStream out = new ServletOutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                content.write(b);
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener)
+            {
+            }
+        };
+        HttpServletResponse response = (HttpServletResponse)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "setContentLength":
+                    contentLength.set((Integer)args[0]);
+                    return null;
+                case "getOutputStream":
+                    return out;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        buffer.writeTo(response);
+        buffer.release();
+        assertThat("content-length", contentLength.get(), is(content.size()));
+        assertThat("buffers released", acquired.get(), is(0));
+        return content.toByteArray();
+    }
+
+    private String encode(CharSequence text) throws Exception
+    {
+        return new String(writeAndRelease(new ResponseBuffer(pool).append(text)), StandardCharsets.UTF_8);
+    }
+
+    private String encode(long value) throws Exception
+    {
+        return new String(writeAndRelease(new ResponseBuffer(pool).append(value)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMultiByteSequences() throws Exception
+    {
+        String text = "a\u00E9\u20AC\uD83D\uDE00z";
+        byte[] encoded = writeAndRelease(new ResponseBuffer(pool).append(text));
+        assertThat("bytes", encoded.length, is(1 + 2 + 3 + 4 + 1));
+        assertThat("utf-8", encoded, is(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testSequenceBoundaries() throws Exception
+    {
+        String text = "\u007f\u0080\u07FF\u0800\uFFFF\uD800\uDC00\uDBFF\uDFFF";
+        assertThat("utf-8", writeAndRelease(new ResponseBuffer(pool).append(text)), is(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testSingleChars() throws Exception
+    {
+        ResponseBuffer buffer = new ResponseBuffer(pool).append('a').append('\u00E9').append('\u20AC');
+        assertThat("utf-8", writeAndRelease(buffer), is("a\u00E9\u20AC".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testLoneSurrogates() throws Exception
+    {
+        assertThat("lone high", encode("a\uD83Db"), is("a?b"));
+        assertThat("lone low", encode("a\uDE00b"), is("a?b"));
+        assertThat("high at end", encode("a\uD83D"), is("a?"));
+        assertThat("reversed pair", encode("\uDE00\uD83D"), is("??"));
+        assertThat("single char", new String(writeAndRelease(new ResponseBuffer(pool).append('\uD83D')), StandardCharsets.UTF_8), is("?"));
+    }
+
+    @Test
+    public void testNull() throws Exception
+    {
+        assertThat("null text", encode(null), is("null"));
+        assertThat("null object", new String(writeAndRelease(new ResponseBuffer(pool).append((Object)null)), StandardCharsets.UTF_8), is("null"));
+    }
+
+    @Test
+    public void testLongs() throws Exception
+    {
+        assertThat("zero", encode(0), is("0"));
+        assertThat("one digit", encode(7), is("7"));
+        assertThat("power of ten", encode(1000), is("1000"));
+        assertThat("negative", encode(-42), is("-42"));
+        assertThat("minus one", encode(-1), is("-1"));
+        assertThat("max", encode(Long.MAX_VALUE), is(Long.toString(Long.MAX_VALUE)));
+        assertThat("min", encode(Long.MIN_VALUE), is(Long.toString(Long.MIN_VALUE)));
+        assertThat("min + 1", encode(Long.MIN_VALUE + 1), is(Long.toString(Long.MIN_VALUE + 1)));
+    }
+
+    @Test
+    public void testGrowth() throws Exception
+    {
+        StringBuilder expected = new StringBuilder();
+        ResponseBuffer buffer = new ResponseBuffer(pool);
+        for (int i = 0; i < 2000; i++)
+        {
+            // Mix sequence lengths, so that growth happens in the middle of a sequence.
+            buffer.append("line ").append(i).append(" \u20AC\uD83D\uDE00").newLine();
+            expected.append("line ").append(i).append(" \u20AC\uD83D\uDE00").append('\n');
+        }
+        byte[] encoded = writeAndRelease(buffer);
+        assertThat("grown", encoded.length, greaterThan(4096 * 4));
+        assertThat("content", new String(encoded, StandardCharsets.UTF_8), is(expected.toString()));
+    }
+}
@@ -0,0 +1,91 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class ServerWarmupTest
+{
+    @TempDir
+    public Path tempDir;
+    private Server server;
+    private HttpClient client;
+
+    @AfterEach
+    public void teardown()
+    {
+        LifeCycle.stop(client);
+        LifeCycle.stop(server);
+    }
+
+    @Test
+    public void testWarmupBeforeAccepting() throws Exception
+    {
+        Path auditLogFile = tempDir.resolve("audit.log");
+        server = Main.newServer(0, false, auditLogFile);
+        ServerConnector connector = server.getBean(ServerConnector.class);
+        ServerWarmup warmup = new ServerWarmup();
+        warmup.setRequests(200);
+
+        ServerWarmup.Report report = warmup.start(server);
+        assertThat("requests", report.getRequests(), is(200));
+        assertThat("failures", report.getFailures(), is(0));
+        assertThat("first latency", report.getFirstNanos(), greaterThan(0L));
+        // The warm-up requests include rejected ones, but they are neither counted nor audited.
+        SizeLimitMetrics metrics = server.getBean(SizeLimitMetrics.class);
+        assertThat("request bytes", metrics.getRequestBytes(), is(0L));
+        assertThat("rejections", metrics.getRequestsRejected(), is(0L));
+        assertThat("responses", metrics.getResponses(), is(0L));
+
+        Connector[] connectors = server.getConnectors();
+        assertThat("connectors", connectors, arrayWithSize(1));
+        assertThat("network connector", connectors[0], instanceOf(ServerConnector.class));
+        assertThat("no local connector", server.getBean(LocalConnector.class) == null, is(true));
+        assertThat("started", connector.isStarted(), is(true));
+
+        client = new HttpClient();
+        client.start();
+        ContentResponse response = client.GET(server.getURI().resolve("/dump/foo"));
+        assertThat("response.status", response.getStatus(), is(HttpStatus.OK_200));
+        assertThat("real responses counted", metrics.getResponseWireBytes(), greaterThan(0L));
+
+        server.stop();
+        assertThat("stopped with the server", connector.isStopped(), is(true));
+        assertThat("audited", Files.exists(auditLogFile) ? Files.size(auditLogFile) : 0L, is(0L));
+    }
+}
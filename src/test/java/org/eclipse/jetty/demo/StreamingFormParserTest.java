@@ -0,0 +1,86 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StreamingFormParserTest
+{
+    private final StreamingFormParser parser = new StreamingFormParser(5, 16, 32, 128);
+
+    private StreamingFormParser.Parameters parse(String form) throws IOException
+    {
+        return parser.parse(new ByteArrayInputStream(form.getBytes(UTF_8)), UTF_8);
+    }
+
+    @Test
+    public void testDecode() throws IOException
+    {
+        StreamingFormParser.Parameters parameters = parse("name=foo&the+key=a%20b&multi=1&multi=2&empty=&flag");
+        assertThat("names", parameters.getNames(), contains("name", "the key", "multi", "empty", "flag"));
+        assertThat("name", parameters.getValue("name"), is("foo"));
+        assertThat("the key", parameters.getValue("the key"), is("a b"));
+        assertThat("multi", parameters.getValues("multi"), arrayContaining("1", "2"));
+        assertThat("empty", parameters.getValue("empty"), is(""));
+        assertThat("flag", parameters.getValue("flag"), is(""));
+        assertThat("missing", parameters.getValue("missing"), nullValue());
+    }
+
+    @Test
+    public void testUtf8() throws IOException
+    {
+        StreamingFormParser.Parameters parameters = parse("greeting=%E2%82%AC%20caf%C3%A9");
+        assertThat("greeting", parameters.getValue("greeting"), is("€ café"));
+    }
+
+    @Test
+    public void testTooManyKeys()
+    {
+        assertThrows(FormLimitExceededException.class, () -> parse("a=1&b=2&c=3&d=4&e=5&f=6"));
+    }
+
+    @Test
+    public void testKeyTooLong()
+    {
+        assertThrows(FormLimitExceededException.class, () -> parse("abcdefghijklmnopq=1"));
+    }
+
+    @Test
+    public void testValueTooLong()
+    {
+        assertThrows(FormLimitExceededException.class, () -> parse("a=" + "x".repeat(33)));
+    }
+
+    @Test
+    public void testFormTooLarge()
+    {
+        assertThrows(FormLimitExceededException.class, () -> parse("a=" + "x".repeat(30) + "&b=" + "x".repeat(30) + "&c=" + "x".repeat(30) + "&d=" + "x".repeat(30)));
+    }
+}